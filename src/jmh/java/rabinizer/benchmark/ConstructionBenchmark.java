@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rabinizer.benchmark;
+
+import ltl.equivalence.EquivalenceClassFactory;
+import ltl.equivalence.FactoryRegistry;
+import omega_automaton.collections.valuationset.BDDValuationSetFactory;
+import omega_automaton.collections.valuationset.ValuationSetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rabinizer.automata.DTGRAFactory;
+import rabinizer.automata.DTGRMAFactory;
+import rabinizer.automata.DTRA;
+import rabinizer.automata.Optimisation;
+import rabinizer.automata.ProductRabinizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translates all formulas of a corpus per invocation. Every formula gets
+ * fresh factories, as in the command line interface, hence the BDD tables
+ * are created anew in every invocation. The construction allocates a lot, so
+ * the heap is fixed and the warm-up is longer than usual.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-Xss16m" })
+public class ConstructionBenchmark {
+
+    private static final Set<Optimisation> ALL = Collections.unmodifiableSet(EnumSet.allOf(Optimisation.class));
+    private static final Set<Optimisation> CONTROLLER_SYNTHESIS = Collections.unmodifiableSet(EnumSet.of(Optimisation.COMPUTE_ACC_CONDITION));
+
+    @Param({ "small.ltl", "fgx.ltl", "all.ltl" })
+    public String corpus;
+
+    private List<Corpus.Entry> formulas;
+    private List<Corpus.Entry> frequencyFormulas;
+    private List<ProductRabinizer> products;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        formulas = Corpus.load(corpus, false);
+        frequencyFormulas = Corpus.load(corpus, true);
+    }
+
+    /**
+     * The degeneralisation does not change the generalised automata, hence
+     * they are built once per iteration.
+     */
+    @Setup(Level.Iteration)
+    public void constructProducts() {
+        products = new ArrayList<>(formulas.size());
+        for (Corpus.Entry entry : formulas) {
+            products.add(dtgraFactory(entry).constructAutomaton());
+        }
+    }
+
+    @Benchmark
+    public void dtgra(Blackhole blackhole) {
+        for (Corpus.Entry entry : formulas) {
+            blackhole.consume(dtgraFactory(entry).constructAutomaton());
+        }
+    }
+
+    @Benchmark
+    public void dtgrma(Blackhole blackhole) {
+        for (Corpus.Entry entry : frequencyFormulas) {
+            EquivalenceClassFactory factory = FactoryRegistry.createEquivalenceClassFactory(entry.formula);
+            ValuationSetFactory valuationSetFactory = new BDDValuationSetFactory(entry.mapping.size());
+            blackhole.consume(new DTGRMAFactory(entry.formula, factory, valuationSetFactory, CONTROLLER_SYNTHESIS).constructAutomaton());
+        }
+    }
+
+    @Benchmark
+    public void dtra(Blackhole blackhole) {
+        for (ProductRabinizer product : products) {
+            blackhole.consume(new DTRA(product));
+        }
+    }
+
+    private static DTGRAFactory dtgraFactory(Corpus.Entry entry) {
+        EquivalenceClassFactory factory = FactoryRegistry.createEquivalenceClassFactory(entry.formula);
+        ValuationSetFactory valuationSetFactory = new BDDValuationSetFactory(entry.mapping.size());
+        return new DTGRAFactory(entry.formula, factory, valuationSetFactory, ALL);
+    }
+}
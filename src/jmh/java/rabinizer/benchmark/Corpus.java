@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rabinizer.benchmark;
+
+import com.google.common.collect.BiMap;
+
+import ltl.Formula;
+import ltl.GOperator;
+import ltl.UOperator;
+import ltl.UnaryModalOperator;
+import ltl.parser.ParseException;
+import ltl.parser.Parser;
+import ltl.simplifier.Simplifier;
+import ltl.visitors.RestrictToFGXU;
+import ltl.visitors.predicates.ContainsPredicate;
+import rabinizer.frequencyLTL.MojmirOperatorVisitor;
+import rabinizer.frequencyLTL.TopMostOperatorVisitor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The formulas of one of the files in the formulas directory, prepared in the
+ * same way as by the command line interface. The directory can be changed
+ * with the system property rabinizer.formulas.
+ */
+public final class Corpus {
+
+    public static final class Entry {
+        public final Formula formula;
+        public final BiMap<String, Integer> mapping;
+
+        Entry(Formula formula, BiMap<String, Integer> mapping) {
+            this.formula = formula;
+            this.mapping = mapping;
+        }
+    }
+
+    private Corpus() {
+    }
+
+    /**
+     * @param controllerSynthesis
+     *            if true, the formulas are prepared for the construction for
+     *            MDPs, and formulas outside of fLTL\GU are left out
+     */
+    public static List<Entry> load(String name, boolean controllerSynthesis) throws IOException {
+        return load(name, controllerSynthesis, Simplifier.Strategy.AGGRESSIVELY);
+    }
+
+    /**
+     * @param simplification
+     *            the simplification applied to the formulas, which is ignored
+     *            for the construction for MDPs
+     */
+    public static List<Entry> load(String name, boolean controllerSynthesis, Simplifier.Strategy simplification) throws IOException {
+        Path file = Paths.get(System.getProperty("rabinizer.formulas", "formulas"), name);
+        List<Entry> entries = new ArrayList<>();
+
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            Parser parser = new Parser(new StringReader(line));
+            Formula formula;
+            try {
+                formula = parser.formula().accept(new RestrictToFGXU());
+            } catch (ParseException e) {
+                throw new IOException("Cannot parse " + line + " in " + file, e);
+            }
+
+            if (controllerSynthesis) {
+                formula = formula.accept(new MojmirOperatorVisitor());
+                Set<UnaryModalOperator> gSubformulae = formula.accept(new TopMostOperatorVisitor());
+                if (gSubformulae.stream().filter(op -> op instanceof GOperator).anyMatch(g -> g.accept(new ContainsPredicate(UOperator.class)))) {
+                    continue;
+                }
+            } else {
+                formula = Simplifier.simplify(formula, simplification);
+            }
+
+            entries.add(new Entry(formula, parser.map));
+        }
+
+        return entries;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.benchmark;
+
+import ltl.equivalence.EquivalenceClassFactory;
+import ltl.equivalence.FactoryRegistry;
+import ltl.simplifier.Simplifier;
+import omega_automaton.collections.valuationset.BDDValuationSetFactory;
+import rabinizer.automata.Budget;
+import rabinizer.automata.BudgetExceededException;
+import rabinizer.automata.DTGRAFactory;
+import rabinizer.automata.Optimisation;
+import rabinizer.automata.ProductRabinizer;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Translates the formulas of the given corpora with every combination of the
+ * optimisations and every simplification level, and prints one row per
+ * combination and corpus: the number of translated formulas, their summed
+ * construction time and sizes of the products and of the acceptance
+ * conditions, and the number of formulas, which exceeded the time limit.
+ * Formulas exceeding the time limit are not part of the sums, hence the sums
+ * of two rows are only comparable if their numbers of timeouts are equal. The
+ * acceptance condition is always computed.
+ *
+ * <pre>
+ * usage: OptimisationMatrix [-timeout ms] [-csv file] corpus...
+ * </pre>
+ *
+ * If a csv file is given, one line per formula and combination is written
+ * there, too. Without corpora, small.ltl, fgx.ltl and all.ltl are used.
+ */
+public final class OptimisationMatrix {
+
+    private static final Optimisation[] FLAGS = { Optimisation.EAGER, Optimisation.SKELETON, Optimisation.ONLY_RELEVANT_SLAVES, Optimisation.OPTIMISE_INITIAL_STATE,
+            Optimisation.EMPTINESS_CHECK, Optimisation.MINIMISE_SLAVES };
+
+    private static final Simplifier.Strategy[] LEVELS = { Simplifier.Strategy.NONE, Simplifier.Strategy.MODAL, Simplifier.Strategy.AGGRESSIVELY };
+
+    private OptimisationMatrix() {
+    }
+
+    public static void main(String... args) throws IOException {
+        long timeout = 10000;
+        PrintWriter csv = null;
+        List<String> corpora = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-timeout".equals(args[i]) && i + 1 < args.length) {
+                timeout = Long.parseLong(args[++i]);
+            } else if ("-csv".equals(args[i]) && i + 1 < args.length) {
+                csv = new PrintWriter(Files.newBufferedWriter(Paths.get(args[++i]), StandardCharsets.UTF_8));
+                csv.println("corpus,line,simplification,optimisations,ms,states,pairs,infSets,timeout");
+            } else {
+                corpora.add(args[i]);
+            }
+        }
+
+        if (corpora.isEmpty()) {
+            corpora.add("small.ltl");
+            corpora.add("fgx.ltl");
+            corpora.add("all.ltl");
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%-10s %-13s %-40s %8s %10s %10s %8s %8s %8s", "corpus", "simplify", "optimisations", "solved", "ms", "states", "pairs",
+                "infSets", "timeouts"));
+
+        try {
+            for (String corpus : corpora) {
+                for (Simplifier.Strategy level : LEVELS) {
+                    List<Corpus.Entry> formulas = Corpus.load(corpus, false, level);
+
+                    // warm up the JVM on this corpus, the results are dropped
+                    run(formulas, EnumSet.allOf(Optimisation.class), timeout, null);
+
+                    for (int mask = 0; mask < 1 << FLAGS.length; mask++) {
+                        Set<Optimisation> optimisations = EnumSet.of(Optimisation.COMPUTE_ACC_CONDITION);
+                        for (int i = 0; i < FLAGS.length; i++) {
+                            if ((mask & (1 << i)) != 0) {
+                                optimisations.add(FLAGS[i]);
+                            }
+                        }
+
+                        List<Row> rows = new ArrayList<>();
+                        run(formulas, optimisations, timeout, rows);
+                        print(corpus, level, optimisations, rows, csv);
+                    }
+                }
+            }
+        } finally {
+            if (csv != null) {
+                csv.close();
+            }
+        }
+    }
+
+    private static void run(List<Corpus.Entry> formulas, Set<Optimisation> optimisations, long timeout, List<Row> rows) {
+        for (Corpus.Entry entry : formulas) {
+            EquivalenceClassFactory factory = FactoryRegistry.createEquivalenceClassFactory(entry.formula);
+            DTGRAFactory automatonFactory = new DTGRAFactory(entry.formula, factory, new BDDValuationSetFactory(entry.mapping.size()), optimisations);
+            automatonFactory.setBudget(Budget.of(timeout, 0, 0));
+
+            long start = System.nanoTime();
+            Row row;
+            try {
+                ProductRabinizer product = automatonFactory.constructAutomaton();
+                int infSets = product.getAcceptance().unmodifiableCopyOfAcceptanceCondition().stream().mapToInt(pair -> pair.right.size()).sum();
+                row = new Row(System.nanoTime() - start, product.size(), product.getAcceptance().unmodifiableCopyOfAcceptanceCondition().size(), infSets, false);
+            } catch (BudgetExceededException e) {
+                row = new Row(System.nanoTime() - start, 0, 0, 0, true);
+            }
+
+            if (rows != null) {
+                rows.add(row);
+            }
+        }
+    }
+
+    private static void print(String corpus, Simplifier.Strategy level, Set<Optimisation> optimisations, List<Row> rows, PrintWriter csv) {
+        long nanos = 0;
+        long states = 0;
+        long pairs = 0;
+        long infSets = 0;
+        int timeouts = 0;
+
+        String flags = describe(optimisations);
+
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+
+            if (row.timeout) {
+                // a timeout has no sizes, counting it as 0 would favour it
+                timeouts++;
+                if (csv != null) {
+                    csv.println(String.format(Locale.ROOT, "%s,%d,%s,%s,%.3f,,,,true", corpus, i + 1, level, flags, row.nanos / 1e6));
+                }
+                continue;
+            }
+
+            nanos += row.nanos;
+            states += row.states;
+            pairs += row.pairs;
+            infSets += row.infSets;
+
+            if (csv != null) {
+                csv.println(String.format(Locale.ROOT, "%s,%d,%s,%s,%.3f,%d,%d,%d,false", corpus, i + 1, level, flags, row.nanos / 1e6, row.states, row.pairs, row.infSets));
+            }
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%-10s %-13s %-40s %8d %10.1f %10d %8d %8d %8d", corpus, level, flags, rows.size() - timeouts, nanos / 1e6, states, pairs,
+                infSets, timeouts));
+    }
+
+    private static String describe(Set<Optimisation> optimisations) {
+        StringBuilder flags = new StringBuilder();
+        for (Optimisation flag : FLAGS) {
+            if (optimisations.contains(flag)) {
+                if (flags.length() > 0) {
+                    flags.append('+');
+                }
+                flags.append(flag.name().toLowerCase(Locale.ROOT));
+            }
+        }
+        return flags.length() == 0 ? "none" : flags.toString();
+    }
+
+    private static final class Row {
+        final long nanos;
+        final int states;
+        final int pairs;
+        final int infSets;
+        final boolean timeout;
+
+        Row(long nanos, int states, int pairs, int infSets, boolean timeout) {
+            this.nanos = nanos;
+            this.states = states;
+            this.pairs = pairs;
+            this.infSets = infSets;
+            this.timeout = timeout;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rabinizer.exec;
+
+import jhoafparser.consumer.HOAConsumerPrint;
+import ltl.Literal;
+import ltl.equivalence.EquivalenceClassFactory;
+import ltl.equivalence.FactoryRegistry;
+import omega_automaton.collections.valuationset.BDDValuationSetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rabinizer.benchmark.Corpus;
+import rabinizer.automata.DTGRAFactory;
+import rabinizer.automata.Optimisation;
+import rabinizer.automata.ProductRabinizer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing the automata of all.ltl through an unbuffered
+ * {@link FileOutputStream}, as it was done before, with writing through the
+ * {@link ChannelOutputStream}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-Xss16m" })
+public class OutputBenchmark {
+
+    private final List<ProductRabinizer> automata = new ArrayList<>();
+    private final List<Corpus.Entry> formulas = new ArrayList<>();
+    private File file;
+
+    @Setup(Level.Trial)
+    public void construct() throws IOException {
+        for (Corpus.Entry entry : Corpus.load("all.ltl", false)) {
+            EquivalenceClassFactory factory = FactoryRegistry.createEquivalenceClassFactory(entry.formula);
+            automata.add(new DTGRAFactory(entry.formula, factory, new BDDValuationSetFactory(entry.mapping.size()), EnumSet.allOf(Optimisation.class)).constructAutomaton());
+            formulas.add(entry);
+        }
+
+        file = File.createTempFile("automaton", ".hoa");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void fileOutputStream() throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeAll(out);
+        }
+    }
+
+    @Benchmark
+    public void channelOutputStream() throws IOException {
+        try (OutputStream out = ChannelOutputStream.toFile(file)) {
+            writeAll(out);
+        }
+    }
+
+    private void writeAll(OutputStream out) {
+        for (int i = 0; i < automata.size(); i++) {
+            Literal.mapping = formulas.get(i).mapping;
+            automata.get(i).toHOA(new HOAConsumerPrint(out), formulas.get(i).mapping);
+        }
+    }
+}
@@ -17,6 +17,8 @@
 
 package rabinizer.automata;
 
+import javax.annotation.Nullable;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -25,8 +27,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
+import com.google.common.collect.BiMap;
+
+import jhoafparser.consumer.HOAConsumer;
 import jhoafparser.consumer.HOAConsumerPrint;
 import ltl.Formula;
 import ltl.UnaryModalOperator;
@@ -34,7 +44,6 @@ import ltl.equivalence.EquivalenceClassFactory;
 import omega_automaton.collections.TranSet;
 import omega_automaton.collections.Tuple;
 import omega_automaton.collections.valuationset.ValuationSetFactory;
-import rabinizer.exec.Main;
 import rabinizer.exec.OutputLevel;
 import rabinizer.frequencyLTL.SlaveSubformulaVisitor;
 import rabinizer.automata.Optimisation;
@@ -49,11 +58,23 @@ import rabinizer.automata.Optimisation;
  *            type of overall product
  */
 public abstract class AbstractAutomatonFactory<T extends AbstractSelfProductSlave<?>, ParamProduct extends AbstractSelfProductSlave<ParamProduct>.State, P extends Product<ParamProduct>> {
+    /**
+     * Name of the statistics phase of a master, which is explored by the
+     * product.
+     */
+    public static final String MASTER_ON_DEMAND = "master (explored by product)";
+
     protected final Formula phi;
     protected final EquivalenceClassFactory equivalenceClassFactory;
     protected final ValuationSetFactory valuationSetFactory;
     protected final Collection<Optimisation> opts;
     protected P product;
+    protected Budget budget = Budget.UNLIMITED;
+    protected ConstructionStatistics statistics = ConstructionStatistics.DISABLED;
+    private int threads = 1;
+    private Supplier<EquivalenceClassFactory> workerFactories;
+    private Supplier<ValuationSetFactory> workerValuationSetFactories;
+    private boolean masterOnDemand;
 
     protected AbstractAutomatonFactory(Formula phi, EquivalenceClassFactory equivalenceClassFactory, ValuationSetFactory valuationSetFactory, Collection<Optimisation> opts) {
         this.phi = phi;
@@ -63,18 +84,50 @@ public abstract class AbstractAutomatonFactory<T extends AbstractSelfProductSlav
     }
 
     /**
-     * Used by Prism
+     * Limits the following constructions. If the budget is exceeded, a
+     * {@link BudgetExceededException} is thrown by constructAutomaton.
      */
-    public final P constructAutomaton() {
-        Master master = constructMaster();
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+    }
 
-        Map<UnaryModalOperator, T> slaves = constructSlaves();
+    /**
+     * The phases of the following constructions are recorded into the given
+     * statistics.
+     */
+    public void setStatistics(ConstructionStatistics statistics) {
+        this.statistics = statistics;
+    }
 
-        OutputLevel.nonsilent("========================================");
-        OutputLevel.nonsilent("Generating product\n");
+    /**
+     * The master of the following constructions is generated by the given
+     * number of threads, see {@link Master#generate(int, EquivalenceClassFactory, Supplier)}.
+     * The slaves, i.e. the Mojmir slaves and their self-products, are
+     * constructed concurrently by the same number of threads, each with
+     * factories of its own, and handed over as tables.
+     *
+     * @param workerFactories
+     *            creates an equivalence class factory for the formula of
+     *            this factory, which is used by one thread only
+     * @param workerValuationSetFactories
+     *            creates a valuation set factory for the alphabet of this
+     *            factory, which is used by one thread only
+     */
+    public void setParallelism(int threads, Supplier<EquivalenceClassFactory> workerFactories, Supplier<ValuationSetFactory> workerValuationSetFactories) {
+        this.threads = threads;
+        this.workerFactories = workerFactories;
+        this.workerValuationSetFactories = workerValuationSetFactories;
+    }
 
-        product = obtainProduct(master, slaves);
+    /**
+     * Used by Prism
+     */
+    public final P constructAutomaton() {
+        constructProductWithoutStates();
+        statistics.begin();
         product.generate();
+        statistics.end("product", product, this::footprint);
+        endMasterOnDemand();
 
         if (!OutputLevel.isSilent()) {
             HOAConsumerPrint hoa = new HOAConsumerPrint(System.out);
@@ -85,22 +138,76 @@ public abstract class AbstractAutomatonFactory<T extends AbstractSelfProductSlav
             OutputLevel.nonsilent("========================================");
             OutputLevel.nonsilent("Generating acceptance condition\n");
 
+            statistics.begin();
             constructAcceptance();
+            product.getSecondaryAutomata().values().forEach(slave -> slave.mojmir.clearAcceptanceCache());
+            statistics.end("acceptance", null, this::footprint);
 
             OutputLevel.nonsilent("========================================");
             OutputLevel.nonsilent("Remove some redundancy of Acceptance Condition\n");
 
+            statistics.begin();
             removeRedundancy();
+            statistics.end("redundancy removal", null, this::footprint);
 
             OutputLevel.nonsilent("========================================");
             OutputLevel.nonsilent("Doing post-processing optimisations\n");
 
+            statistics.begin();
             doPostProcessingOptimisations();
+            statistics.end("post-processing", product, this::footprint);
         }
         return product;
 
     }
 
+    /**
+     * Writes the product into the consumer while it is explored, such that
+     * the transitions of the whole product are never stored. Since the
+     * acceptance condition needs the complete product, this is only possible
+     * if the acceptance condition is not computed.
+     */
+    public final void constructAutomatonStreaming(HOAConsumer consumer, BiMap<String, Integer> aliases) {
+        if (opts.contains(Optimisation.COMPUTE_ACC_CONDITION)) {
+            throw new IllegalStateException("The product can only be streamed, if the acceptance condition is not computed.");
+        }
+
+        constructProductWithoutStates();
+        statistics.begin();
+        product.toHOAStreaming(consumer, aliases);
+        statistics.end("product (streamed)");
+        endMasterOnDemand();
+    }
+
+    private void constructProductWithoutStates() {
+        Master master = constructMaster();
+
+        Map<UnaryModalOperator, T> slaves = constructSlaves();
+
+        OutputLevel.nonsilent("========================================");
+        OutputLevel.nonsilent("Generating product\n");
+
+        product = obtainProduct(master, slaves);
+    }
+
+    /**
+     * A master, which is explored on demand, has no states before the
+     * product is explored. Hence it is recorded after the product as the
+     * phase {@value #MASTER_ON_DEMAND}, whose time is part of the product
+     * phase.
+     */
+    private void endMasterOnDemand() {
+        if (masterOnDemand) {
+            Master master = product.primaryAutomaton;
+            statistics.begin();
+            statistics.end(MASTER_ON_DEMAND, master, () -> HeapFootprint.of(master, Collections.<T> emptyList(), null));
+        }
+    }
+
+    private Map<String, Long> footprint() {
+        return HeapFootprint.of(product.primaryAutomaton, product.getSecondaryAutomata().values(), product);
+    }
+
     protected final void removeRedundancy() {
         Set<Integer> toRemove = new HashSet<>();
 
@@ -136,6 +243,7 @@ public abstract class AbstractAutomatonFactory<T extends AbstractSelfProductSlav
         toRemove.clear();
         for (int i = 0; i < product.getAcceptance().unmodifiableCopyOfAcceptanceCondition().size(); i++) {
             for (int j = 0; j < product.getAcceptance().unmodifiableCopyOfAcceptanceCondition().size(); j++) {
+                budget.tick();
                 if (i == j) {
                     continue;
                 }
@@ -158,8 +266,23 @@ public abstract class AbstractAutomatonFactory<T extends AbstractSelfProductSlav
     final Master constructMaster() {
         OutputLevel.nonsilent("========================================");
         OutputLevel.nonsilent("Generating primaryAutomaton:\n");
-        Master master = new Master(phi, equivalenceClassFactory, valuationSetFactory, opts);
-        master.generate();
+        statistics.begin();
+        Master master = new Master(phi, equivalenceClassFactory, valuationSetFactory, opts, budget);
+
+        // The master is explored on demand by the product. It is only
+        // generated up front, if it is printed before the product or if it
+        // is generated in parallel.
+        if (threads > 1) {
+            master.generate(threads, equivalenceClassFactory, workerFactories);
+        } else if (!OutputLevel.isSilent()) {
+            master.generate();
+        }
+
+        masterOnDemand = threads <= 1 && OutputLevel.isSilent();
+        if (!masterOnDemand) {
+            statistics.end("master", master, () -> HeapFootprint.of(master, Collections.<T> emptyList(), null));
+        }
+
         if (!OutputLevel.isSilent()) {
             HOAConsumerPrint hoa = new HOAConsumerPrint(System.out);
             master.toHOA(hoa, null);
@@ -171,34 +294,128 @@ public abstract class AbstractAutomatonFactory<T extends AbstractSelfProductSlav
         Set<UnaryModalOperator> gSubformulas = phi.accept(new SlaveSubformulaVisitor());
         Map<UnaryModalOperator, T> slaves = new HashMap<>();
 
-        for (UnaryModalOperator f : gSubformulas) {
+        // The slaves are independent of each other and constructed in
+        // parallel with thread-confined factories. Loading the listed tables
+        // into the factories of this factory, freezing and the output stay in
+        // this thread in the order of the subformulas.
+        Map<UnaryModalOperator, Future<Tuple<MojmirSlave.Table, AbstractSelfProductSlave.Table>>> listed = new HashMap<>();
+        ExecutorService executor = null;
 
-            MojmirSlave mSlave = new MojmirSlave(f, equivalenceClassFactory, valuationSetFactory, opts);
-            mSlave.generate();
+        if (threads > 1) {
+            ThreadLocal<EquivalenceClassFactory> factories = ThreadLocal.withInitial(workerFactories);
+            ThreadLocal<ValuationSetFactory> valuationSetFactories = ThreadLocal.withInitial(workerValuationSetFactories);
+            executor = Executors.newFixedThreadPool(threads);
+
+            for (UnaryModalOperator f : gSubformulas) {
+                listed.put(f, executor.submit(() -> listSlave(f, factories.get(), valuationSetFactories.get())));
+            }
+        }
 
-            if (OutputLevel.isVerbose()) {
-                HOAConsumerPrint hoa = new HOAConsumerPrint(System.out);
-                OutputLevel.verboseln("Mojmir Slave: ");
-                mSlave.toHOA(hoa, null);
+        try {
+            for (UnaryModalOperator f : gSubformulas) {
+                constructSlave(f, listed.get(f), slaves);
             }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        return slaves;
+    }
 
-            T rSlave = obtainSelfProductSlave(mSlave);
+    /**
+     * Constructs the slave of f with factories, which are only used by the
+     * calling thread, and lists the minimised Mojmir slave and its
+     * self-product for {@link #constructSlave(UnaryModalOperator, Future, Map)}.
+     */
+    private Tuple<MojmirSlave.Table, AbstractSelfProductSlave.Table> listSlave(UnaryModalOperator f, EquivalenceClassFactory factory,
+            ValuationSetFactory valuations) {
+        MojmirSlave mSlave = new MojmirSlave(f, factory, valuations, opts, budget);
+        mSlave.generate();
+        minimiseMojmirSlave(mSlave, f, factory);
+        mSlave.freeze();
+
+        Map<MojmirSlave.State, Integer> ids = new HashMap<>();
+        MojmirSlave.Table mojmir = mSlave.toTable(ids);
+        AbstractSelfProductSlave.Table selfProduct = obtainSelfProductSlave(mSlave, valuations).toTable(ids);
+        ids.keySet().forEach(MojmirSlave.State::free);
+        return new Tuple<>(mojmir, selfProduct);
+    }
+
+    private void constructSlave(UnaryModalOperator f, @Nullable Future<Tuple<MojmirSlave.Table, AbstractSelfProductSlave.Table>> listed,
+            Map<UnaryModalOperator, T> slaves) {
+        statistics.begin();
+        MojmirSlave mSlave = new MojmirSlave(f, equivalenceClassFactory, valuationSetFactory, opts, budget);
+        Tuple<MojmirSlave.Table, AbstractSelfProductSlave.Table> tables = listed == null ? null : await(listed);
+        List<MojmirSlave.State> mojmirStates = null;
+        if (tables == null) {
+            mSlave.generate();
+            minimiseMojmirSlave(mSlave, f, equivalenceClassFactory);
+        } else {
+            // minimised by the listing thread already
+            mojmirStates = mSlave.load(tables.left, equivalenceClassFactory);
+        }
+        mSlave.freeze();
+        statistics.end("mojmir slave " + f, mSlave);
+
+        if (OutputLevel.isVerbose()) {
+            HOAConsumerPrint hoa = new HOAConsumerPrint(System.out);
+            OutputLevel.verboseln("Mojmir Slave: ");
+            mSlave.toHOA(hoa, null);
+        }
+
+        statistics.begin();
+        T rSlave = obtainSelfProductSlave(mSlave, valuationSetFactory);
+        if (tables == null) {
             rSlave.generate();
+        } else {
+            rSlave.load(tables.right, mojmirStates);
+        }
 
-            optimizeInitialStateOfSelfProductSlave(rSlave);
+        optimizeInitialStateOfSelfProductSlave(rSlave);
+        slaves.put(f, rSlave);
+        // The footprint of all slaves is part of the product phase, measuring
+        // it here would revisit the earlier slaves for every slave.
+        statistics.end("self-product slave " + f, rSlave);
 
-            slaves.put(f, rSlave);
+        if (OutputLevel.isVerbose()) {
+            HOAConsumerPrint hoa = new HOAConsumerPrint(System.out);
+            OutputLevel.verboseln("\nRabin Slave: ");
+            rSlave.toHOA(hoa, null);
+        }
+    }
 
-            if (OutputLevel.isVerbose()) {
-                HOAConsumerPrint hoa = new HOAConsumerPrint(System.out);
-                OutputLevel.verboseln("\nRabin Slave: ");
-                rSlave.toHOA(hoa, null);
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while constructing the slaves", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new IllegalStateException(e.getCause());
         }
-        return slaves;
     }
 
+    /**
+     * Called between the generation of the Mojmir slave of f and the
+     * construction of its self-product, possibly by another thread.
+     *
+     * @param factory
+     *            the factory of the Mojmir slave
+     */
+    protected abstract void minimiseMojmirSlave(MojmirSlave mSlave, UnaryModalOperator f, EquivalenceClassFactory factory);
+
     protected abstract void optimizeInitialStateOfSelfProductSlave(T rSlave);
 
-    protected abstract T obtainSelfProductSlave(MojmirSlave mSlave);
+    /**
+     * Possibly called by another thread.
+     *
+     * @param factory
+     *            the factory of the Mojmir slave
+     */
+    protected abstract T obtainSelfProductSlave(MojmirSlave mSlave, ValuationSetFactory factory);
 }
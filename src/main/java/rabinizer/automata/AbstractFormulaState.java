@@ -21,18 +21,28 @@ import ltl.Formula;
 import ltl.Literal;
 import ltl.equivalence.EquivalenceClass;
 import omega_automaton.AutomatonState;
-import rabinizer.frequencyLTL.UnfoldNoSlaveOperatorVisitor;
+
+import javax.annotation.Nullable;
 
 import java.util.BitSet;
-import java.util.Collection;
-import java.util.Objects;
 
+/**
+ * A state labelled by an equivalence class. The automata intern their states,
+ * i.e. there is at most one state per class and automaton, so states are
+ * equal only if they are identical. The hash code of the class is cached,
+ * which keeps the iteration order of the automata deterministic.
+ */
 abstract class AbstractFormulaState<S> implements AutomatonState<S> {
 
     final EquivalenceClass clazz;
+    private final int hashCode;
+    // computed on the first request and never modified afterwards
+    @Nullable
+    private BitSet sensitiveAlphabet;
 
     AbstractFormulaState(EquivalenceClass clazz) {
         this.clazz = clazz;
+        this.hashCode = clazz.hashCode();
     }
 
     @Override
@@ -41,38 +51,48 @@ abstract class AbstractFormulaState<S> implements AutomatonState<S> {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (this == o)
-            return true;
-        if (o == null || getClass() != o.getClass())
-            return false;
-        AbstractFormulaState<?> that = (AbstractFormulaState<?>) o;
-        return Objects.equals(clazz, that.clazz) && Objects.equals(this.getOuter(), that.getOuter());
+    public final boolean equals(Object o) {
+        return this == o;
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(clazz);
+    public final int hashCode() {
+        return hashCode;
     }
 
     public EquivalenceClass getClazz() {
         return clazz;
     }
 
-    protected abstract Object getOuter();
+    /**
+     * @return a copy of the cached sensitive alphabet, which may be modified
+     */
+    @Override
+    public final BitSet getSensitiveAlphabet() {
+        return (BitSet) sharedSensitiveAlphabet().clone();
+    }
 
-    protected BitSet getSensitive(boolean unfoldG) {
-        BitSet letters = new BitSet();
+    /**
+     * @return the cached sensitive alphabet, which must not be modified
+     */
+    final BitSet sharedSensitiveAlphabet() {
+        if (sensitiveAlphabet == null) {
+            sensitiveAlphabet = computeSensitiveAlphabet();
+        }
+        return sensitiveAlphabet;
+    }
 
-        Collection<Formula> literals;
+    protected abstract BitSet computeSensitiveAlphabet();
 
-        if (unfoldG) {
-            literals = clazz.unfold().getSupport();
-        } else {
-            literals = clazz.apply(formula -> formula.accept(new UnfoldNoSlaveOperatorVisitor())).getSupport();
-        }
+    /**
+     * @param unfolded
+     *            the unfolding of the class of this state, whose literals are
+     *            the letters this state is sensitive to
+     */
+    static BitSet getSensitive(EquivalenceClass unfolded) {
+        BitSet letters = new BitSet();
 
-        for (Formula literal : literals) {
+        for (Formula literal : unfolded.getSupport()) {
             if (literal instanceof Literal) {
                 letters.set(((Literal) literal).getAtom());
             }
@@ -37,6 +37,9 @@ abstract class AbstractProductState<P extends AutomatonState<P>, K, S extends Ab
 
     final P primaryState;
     final ImmutableMap<K, S> secondaryStates;
+    // computed on the first request and never modified afterwards
+    @Nullable
+    private BitSet sensitiveAlphabet;
 
     AbstractProductState(P primaryState, ImmutableMap<K, S> secondaryStates) {
         this.primaryState = primaryState;
@@ -93,7 +96,7 @@ abstract class AbstractProductState<P extends AutomatonState<P>, K, S extends Ab
     public Map<Edge<T>, ValuationSet> getSuccessors() {
         Map<Edge<T>, ValuationSet> successors = new LinkedHashMap<>();
         Map<P, ValuationSet> primarySuccessors = new HashMap<>();
-        for (Map.Entry<Edge<P>, ValuationSet> entry : getPrimaryAutomaton().getSuccessors(primaryState).entrySet()) {
+        for (Map.Entry<Edge<P>, ValuationSet> entry : getPrimarySuccessors().entrySet()) {
             primarySuccessors.put(entry.getKey().successor, entry.getValue());
         }
 
@@ -112,14 +115,22 @@ abstract class AbstractProductState<P extends AutomatonState<P>, K, S extends Ab
         return successors;
     }
 
+    /**
+     * @return a copy of the sensitive alphabet, which is composed once from
+     *         the cached alphabets of the components
+     */
     public BitSet getSensitiveAlphabet() {
-        BitSet sensitiveLetters = primaryState.getSensitiveAlphabet();
+        if (sensitiveAlphabet == null) {
+            BitSet sensitiveLetters = primaryState.getSensitiveAlphabet();
+
+            for (S secondaryState : secondaryStates.values()) {
+                sensitiveLetters.or(secondaryState.getSensitiveAlphabet());
+            }
 
-        for (S secondaryState : secondaryStates.values()) {
-            sensitiveLetters.or(secondaryState.getSensitiveAlphabet());
+            sensitiveAlphabet = sensitiveLetters;
         }
 
-        return sensitiveLetters;
+        return (BitSet) sensitiveAlphabet.clone();
     }
 
     @Override
@@ -135,6 +146,14 @@ abstract class AbstractProductState<P extends AutomatonState<P>, K, S extends Ab
 
     protected abstract Automaton<P, ?> getPrimaryAutomaton();
 
+    /**
+     * @return the successors of the primary state, which are looked up in the
+     *         generated primary automaton by default
+     */
+    protected Map<Edge<P>, ValuationSet> getPrimarySuccessors() {
+        return getPrimaryAutomaton().getSuccessors(primaryState);
+    }
+
     protected abstract Map<K, ? extends Automaton<S, ?>> getSecondaryAutomata();
 
     @Nullable
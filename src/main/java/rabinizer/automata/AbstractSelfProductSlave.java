@@ -17,14 +17,24 @@
 
 package rabinizer.automata;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import omega_automaton.Automaton;
 import omega_automaton.AutomatonState;
+import omega_automaton.Edge;
 import omega_automaton.acceptance.AllAcceptance;
+import omega_automaton.collections.Collections3;
+import omega_automaton.collections.Tuple;
+import omega_automaton.collections.valuationset.ValuationSet;
 import omega_automaton.collections.valuationset.ValuationSetFactory;
 
+import javax.annotation.Nullable;
+
 public abstract class AbstractSelfProductSlave<S extends AutomatonState<S>> extends Automaton<S, AllAcceptance> {
     protected final MojmirSlave mojmir;
 
@@ -46,6 +56,87 @@ public abstract class AbstractSelfProductSlave<S extends AutomatonState<S>> exte
      */
     protected abstract S generateState(Map<MojmirSlave.State, Integer> map);
 
+    /**
+     * Numbers the states reachable from the initial state in breadth-first
+     * order and lists their successors by cubes, such that the self-product
+     * can be loaded by {@link #load(Table, List)} on a self-product with
+     * other factories.
+     *
+     * @param mojmirIds
+     *            the numbers of the Mojmir states, see
+     *            {@link MojmirSlave#toTable(Map)}
+     */
+    Table toTable(Map<MojmirSlave.State, Integer> mojmirIds) {
+        Map<S, Integer> ids = new HashMap<>();
+        List<S> numbered = new ArrayList<>();
+        Table table = new Table();
+
+        ids.put(getInitialState(), 0);
+        numbered.add(getInitialState());
+
+        for (int i = 0; i < numbered.size(); i++) {
+            S state = numbered.get(i);
+            BitSet letters = state.getSensitiveAlphabet();
+            List<Tuple<Integer, Master.Cube>> edges = new ArrayList<>();
+
+            for (BitSet valuation : Collections3.powerSet(letters)) {
+                S successor = state.getSuccessor(valuation).successor;
+                Integer id = ids.get(successor);
+
+                if (id == null) {
+                    id = numbered.size();
+                    ids.put(successor, id);
+                    numbered.add(successor);
+                }
+
+                edges.add(new Tuple<>(id, new Master.Cube(valuation, letters)));
+            }
+
+            Map<Integer, Integer> tokens = new HashMap<>();
+            ((State) state).forEach((mojmirState, value) -> tokens.put(mojmirIds.get(mojmirState), value));
+            table.states.add(tokens);
+            table.edges.add(edges);
+        }
+
+        return table;
+    }
+
+    /**
+     * Replaces the generation of this self-product by a table listed by
+     * {@link #toTable(Map)} for the same Mojmir slave.
+     *
+     * @param mojmirStates
+     *            the states of the Mojmir slave of this self-product in the
+     *            order of its table, see
+     *            {@link MojmirSlave#load(MojmirSlave.Table, ltl.equivalence.EquivalenceClassFactory)}
+     */
+    void load(Table table, List<MojmirSlave.State> mojmirStates) {
+        List<S> numbered = new ArrayList<>(table.states.size());
+        numbered.add(getInitialState());
+
+        for (Map<Integer, Integer> tokens : table.states.subList(1, table.states.size())) {
+            Map<MojmirSlave.State, Integer> map = new HashMap<>();
+            tokens.forEach((id, value) -> map.put(mojmirStates.get(id), value));
+            numbered.add(generateState(map));
+        }
+
+        for (int i = 0; i < numbered.size(); i++) {
+            Map<Edge<S>, ValuationSet> successors = new LinkedHashMap<>();
+
+            for (Tuple<Integer, Master.Cube> edge : table.edges.get(i)) {
+                Edge<S> key = new Edge<>(numbered.get(edge.left), new BitSet(0));
+                ValuationSet valuations = successors.get(key);
+                if (valuations == null) {
+                    valuations = valuationSetFactory.createEmptyValuationSet();
+                    successors.put(key, valuations);
+                }
+                valuations.addAll(valuationSetFactory.createValuationSet(edge.right.valuation, edge.right.letters));
+            }
+
+            transitions.put(numbered.get(i), successors);
+        }
+    }
+
     /**
      * !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!WARNING!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
      * In one subclass the Integer corresponds to the rank according to the
@@ -55,6 +146,11 @@ public abstract class AbstractSelfProductSlave<S extends AutomatonState<S>> exte
     public abstract class State extends HashMap<MojmirSlave.State, Integer> implements AutomatonState<S> {
         private static final long serialVersionUID = 1L;
 
+        // computed on the first request, when the state is complete, and
+        // never modified afterwards
+        @Nullable
+        private transient BitSet sensitiveAlphabet;
+
         @Override
         public String toString() {
             StringBuilder result = new StringBuilder();
@@ -73,9 +169,32 @@ public abstract class AbstractSelfProductSlave<S extends AutomatonState<S>> exte
          * alphabet.or(state.getSensitiveAlphabet())); return alphabet; }
          */
 
+        /**
+         * @return a copy of the cached sensitive alphabet, which may be
+         *         modified
+         */
+        @Override
+        public BitSet getSensitiveAlphabet() {
+            if (sensitiveAlphabet == null) {
+                sensitiveAlphabet = AutomatonState.super.getSensitiveAlphabet();
+            }
+            return (BitSet) sensitiveAlphabet.clone();
+        }
+
         @Override
         public ValuationSetFactory getFactory() {
             return valuationSetFactory;
         }
     }
+
+    /**
+     * A self-product as listed by another thread: the ranks or tokens of its
+     * states by the numbers of the Mojmir states, the initial state first,
+     * and for every state the cubes of valuations leading to the successor
+     * with the given index.
+     */
+    static final class Table {
+        final List<Map<Integer, Integer>> states = new ArrayList<>();
+        final List<List<Tuple<Integer, Master.Cube>>> edges = new ArrayList<>();
+    }
 }
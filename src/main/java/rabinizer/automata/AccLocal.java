@@ -17,6 +17,7 @@
 
 package rabinizer.automata;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import ltl.Conjunction;
 import ltl.Formula;
@@ -55,12 +56,14 @@ abstract class AccLocal<AccMasterInput, AccMasterOutput, AccSlaves, ParamProduct
     protected final Map<UnaryModalOperator, Set<UnaryModalOperator>> topmostSlaves = new HashMap<>();
     protected final Collection<Optimisation> optimisations;
     protected final P product;
+    protected final Budget budget;
 
     public AccLocal(P product, ValuationSetFactory valuationSetFactory, EquivalenceClassFactory equivalenceFactory, Collection<Optimisation> opts) {
         this.product = product;
         this.valuationSetFactory = valuationSetFactory;
         this.equivalenceClassFactory = equivalenceFactory;
         this.optimisations = opts;
+        this.budget = product.primaryAutomaton.budget;
 
         for (UnaryModalOperator gOperator : getOverallFormula().accept(new SlaveSubformulaVisitor())) {
             topmostSlaves.put(gOperator, (gOperator.operand).accept(new TopMostOperatorVisitor()));
@@ -79,6 +82,7 @@ abstract class AccLocal<AccMasterInput, AccMasterOutput, AccSlaves, ParamProduct
         }
 
         for (Set<UnaryModalOperator> gSet : gSets) {
+            budget.check();
             computeAccMasterForASingleGSet(gSet, result);
         }
         return result;
@@ -99,26 +103,128 @@ abstract class AccLocal<AccMasterInput, AccMasterOutput, AccSlaves, ParamProduct
         return result;
     }
 
+    /**
+     * The final states of a G-set are the Mojmir states implied by the
+     * conjunction of the G-set. Since implication is monotone in the G-set,
+     * every state is described by the antichain of minimal G-sets implying it,
+     * and the final states of all G-sets are read off these antichains. G-sets
+     * with the same final states share one slave acceptance condition.
+     */
     private final Map<Set<UnaryModalOperator>, AccSlaves> computeAccSlavesOptions(UnaryModalOperator g) {
         Map<Set<UnaryModalOperator>, AccSlaves> result = new HashMap<>();
+        Map<Set<MojmirSlave.State>, AccSlaves> conditions = new HashMap<>();
+        Map<Set<UnaryModalOperator>, EquivalenceClass> conjunctions = new HashMap<>();
+        Map<MojmirSlave.State, List<Set<UnaryModalOperator>>> antichains = new HashMap<>();
 
-        Set<Set<UnaryModalOperator>> gSets = Sets.powerSet(topmostSlaves.get(g));
+        for (MojmirSlave.State fs : product.getSecondaryAutomata().get(g).mojmir.getStates()) {
+            antichains.put(fs, computeMinimalGSets(topmostSlaves.get(g), fs.getClazz(), equivalenceClassFactory, conjunctions, budget));
+        }
+        conjunctions.values().forEach(EquivalenceClass::free);
 
-        for (Set<UnaryModalOperator> gSet : gSets) {
+        for (Set<UnaryModalOperator> gSet : Sets.powerSet(topmostSlaves.get(g))) {
             Set<MojmirSlave.State> finalStates = new HashSet<>();
-            EquivalenceClass gSetClazz = equivalenceClassFactory.createEquivalenceClass(new Conjunction(gSet));
 
-            for (MojmirSlave.State fs : product.getSecondaryAutomata().get(g).mojmir.getStates()) {
-                if (gSetClazz.implies(fs.getClazz())) {
+            antichains.forEach((fs, antichain) -> {
+                if (antichain.stream().anyMatch(gSet::containsAll)) {
                     finalStates.add(fs);
                 }
+            });
+
+            AccSlaves condition = conditions.get(finalStates);
+            if (condition == null) {
+                condition = getSingleSlaveAccCond(g, finalStates);
+                conditions.put(finalStates, condition);
             }
-            result.put(gSet, getSingleSlaveAccCond(g, finalStates));
+            result.put(gSet, condition);
         }
 
         return result;
     }
 
+    /**
+     * Implication is monotone in the G-set, so the G-sets implying the state
+     * are closed upwards. They are searched level by level, i.e. by size, and
+     * a G-set is only checked if none of the G-sets one smaller implies the
+     * state. Hence no G-set above a minimal one is visited.
+     *
+     * @param conjunctions
+     *            the conjunctions of G-sets created so far, which are shared
+     *            by all states of a slave and have to be freed by the caller
+     */
+    static List<Set<UnaryModalOperator>> computeMinimalGSets(Set<UnaryModalOperator> topmost, EquivalenceClass state, EquivalenceClassFactory factory,
+            Map<Set<UnaryModalOperator>, EquivalenceClass> conjunctions, Budget budget) {
+        List<Set<UnaryModalOperator>> antichain = new ArrayList<>();
+
+        budget.tick();
+        if (!conjunction(topmost, factory, conjunctions).implies(state)) {
+            return antichain;
+        }
+
+        // The G-sets are bit sets of indices into operators. A G-set of the
+        // next level is generated only from its subset without the largest
+        // index, so it is generated once.
+        List<UnaryModalOperator> operators = new ArrayList<>(topmost);
+        Set<BitSet> failing = Collections.singleton(new BitSet());
+
+        budget.tick();
+        if (conjunction(Collections.emptySet(), factory, conjunctions).implies(state)) {
+            antichain.add(Collections.emptySet());
+            return antichain;
+        }
+
+        while (!failing.isEmpty()) {
+            Set<BitSet> next = new HashSet<>();
+
+            for (BitSet gSet : failing) {
+                for (int i = gSet.length(); i < operators.size(); i++) {
+                    BitSet candidate = (BitSet) gSet.clone();
+                    candidate.set(i);
+
+                    if (!allSubsetsFail(candidate, failing)) {
+                        continue;
+                    }
+
+                    Set<UnaryModalOperator> candidateSet = ImmutableSet.copyOf(candidate.stream().mapToObj(operators::get).iterator());
+                    budget.tick();
+                    if (conjunction(candidateSet, factory, conjunctions).implies(state)) {
+                        antichain.add(candidateSet);
+                    } else {
+                        next.add(candidate);
+                    }
+                }
+            }
+
+            failing = next;
+        }
+
+        return antichain;
+    }
+
+    private static boolean allSubsetsFail(BitSet gSet, Set<BitSet> failing) {
+        for (int i = gSet.nextSetBit(0); i >= 0; i = gSet.nextSetBit(i + 1)) {
+            BitSet subset = (BitSet) gSet.clone();
+            subset.clear(i);
+
+            if (!failing.contains(subset)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static EquivalenceClass conjunction(Set<UnaryModalOperator> gSet, EquivalenceClassFactory factory,
+            Map<Set<UnaryModalOperator>, EquivalenceClass> conjunctions) {
+        EquivalenceClass clazz = conjunctions.get(gSet);
+
+        if (clazz == null) {
+            clazz = factory.createEquivalenceClass(new Conjunction(gSet));
+            conjunctions.put(ImmutableSet.copyOf(gSet), clazz);
+        }
+
+        return clazz;
+    }
+
     protected abstract AccSlaves getSingleSlaveAccCond(UnaryModalOperator g, Set<State> finalStates);
 
     protected final Formula getOverallFormula() {
@@ -143,11 +249,13 @@ abstract class AccLocal<AccMasterInput, AccMasterOutput, AccSlaves, ParamProduct
             BitSet sensitiveAlphabet = ps.getSensitiveAlphabet();
 
             for (BitSet valuation : Collections3.powerSet(sensitiveAlphabet)) {
+                budget.tick();
                 if (!slavesEntail(ps, ranking, valuation, ps.primaryState.getClazz())) {
                     result.addAll(ps, valuationSetFactory.createValuationSet(valuation, sensitiveAlphabet));
                 }
             }
         } else {
+            budget.tick();
             if (!slavesEntail(ps, ranking, null, ps.primaryState.getClazz())) {
                 result.addAll(ps, valuationSetFactory.createUniverseValuationSet());
             }
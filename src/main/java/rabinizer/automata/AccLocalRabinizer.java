@@ -83,6 +83,7 @@ class AccLocalRabinizer extends
 
         for (Map<UnaryModalOperator, Integer> ranking : powersetRanks(gDeque)) {
             for (int rank = 1; rank <= maxRank.get(next); rank++) {
+                budget.tick();
                 Map<UnaryModalOperator, Integer> rankingNew = new HashMap<>(ranking);
                 rankingNew.put(next, rank);
                 result.add(rankingNew);
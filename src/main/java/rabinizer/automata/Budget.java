@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rabinizer.automata;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits for a single construction. The construction loops call
+ * {@link #tick()} frequently, which is cheap, and the limits on time and heap
+ * are only compared every {@value #CHECK_INTERVAL} ticks. If a limit is
+ * exceeded, a {@link BudgetExceededException} is thrown, which aborts the
+ * construction.
+ *
+ * The heap is measured for the whole JVM, i.e. concurrent constructions count
+ * for each other.
+ */
+public final class Budget {
+
+    public static final Budget UNLIMITED = new Budget(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Minimal time in nanoseconds between two garbage collections triggered
+     * by the same budget, such that a construction close to its heap limit
+     * does not spend its time in full collections.
+     */
+    private static final long GC_INTERVAL = 10000000000L;
+
+    private final long maxMillis;
+    private final int maxStates;
+    private final long maxHeapBytes;
+    private final long start = System.nanoTime();
+    // shared by the threads of a parallel construction
+    private final AtomicInteger ticks = new AtomicInteger();
+    private final AtomicLong lastCollection = new AtomicLong(start - GC_INTERVAL);
+
+    private Budget(long maxMillis, int maxStates, long maxHeapBytes) {
+        this.maxMillis = maxMillis;
+        this.maxStates = maxStates;
+        this.maxHeapBytes = maxHeapBytes;
+    }
+
+    /**
+     * The time starts running, when the budget is created. Non-positive
+     * values mean that there is no limit.
+     */
+    public static Budget of(long maxMillis, int maxStates, long maxHeapMegabytes) {
+        return new Budget(maxMillis > 0 ? maxMillis : Long.MAX_VALUE, maxStates > 0 ? maxStates : Integer.MAX_VALUE,
+                maxHeapMegabytes > 0 ? maxHeapMegabytes * 1024 * 1024 : Long.MAX_VALUE);
+    }
+
+    public void tick() {
+        if (this != UNLIMITED && ticks.incrementAndGet() % CHECK_INTERVAL == 0) {
+            check();
+        }
+    }
+
+    public void check() {
+        if (this == UNLIMITED) {
+            return;
+        }
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        if (millis > maxMillis) {
+            throw new BudgetExceededException(BudgetExceededException.Resource.TIME, maxMillis, millis);
+        }
+
+        if (maxHeapBytes != Long.MAX_VALUE) {
+            long heap = usedHeap();
+            if (heap > maxHeapBytes && collect()) {
+                // the garbage of earlier constructions should not count
+                heap = usedHeap();
+            }
+            if (heap > maxHeapBytes) {
+                throw new BudgetExceededException(BudgetExceededException.Resource.HEAP, maxHeapBytes / 1024 / 1024, heap / 1024 / 1024);
+            }
+        }
+    }
+
+    /**
+     * Runs the garbage collector, unless this budget already did so within
+     * the last {@link #GC_INTERVAL} nanoseconds.
+     *
+     * @return true if the garbage collector has been run
+     */
+    private boolean collect() {
+        long now = System.nanoTime();
+        long last = lastCollection.get();
+
+        if (now - last < GC_INTERVAL || !lastCollection.compareAndSet(last, now)) {
+            return false;
+        }
+
+        System.gc();
+        return true;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public void checkStates(int states) {
+        if (states > maxStates) {
+            throw new BudgetExceededException(BudgetExceededException.Resource.STATES, maxStates, states);
+        }
+        tick();
+    }
+}
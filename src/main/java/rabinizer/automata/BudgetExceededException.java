@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rabinizer.automata;
+
+/**
+ * Thrown, if a construction exceeds its {@link Budget}. The automata built so
+ * far are unusable afterwards.
+ */
+public class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Resource {
+        TIME("ms"), STATES("states"), HEAP("MB");
+
+        private final String unit;
+
+        Resource(String unit) {
+            this.unit = unit;
+        }
+    }
+
+    public final Resource resource;
+    public final long limit;
+    public final long usage;
+
+    public BudgetExceededException(Resource resource, long limit, long usage) {
+        super("Budget exceeded for " + resource.name().toLowerCase() + ": used " + usage + ' ' + resource.unit + ", the limit is " + limit + ' ' + resource.unit);
+        this.resource = resource;
+        this.limit = limit;
+        this.usage = usage;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.automata;
+
+import omega_automaton.Automaton;
+import omega_automaton.AutomatonState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Records the phases of a construction: the elapsed time, the states and
+ * edges of the automaton produced by the phase, and the heap in use at its
+ * end. The phases follow each other, a phase lasts from {@link #begin()} to
+ * the next call of one of the end methods.
+ *
+ * The construction phases additionally estimate the retained size of the
+ * structures built so far, see {@link HeapFootprint}. The heap not covered by
+ * the estimates is reported as unattributed. It contains the BDD node tables,
+ * the formulas and the caches, and also the garbage, unless the statistics
+ * are created to collect the garbage before the heap of these phases is
+ * measured. Collecting costs a full collection per phase, which is not part
+ * of the reported times, but disturbs the following phases.
+ *
+ * A master, which is not printed and not generated in parallel, is explored
+ * by the product. It is then recorded after the product as the phase
+ * {@value AbstractAutomatonFactory#MASTER_ON_DEMAND} with no time of its own.
+ *
+ * {@link #DISABLED} ignores everything and does not count states or edges.
+ */
+public class ConstructionStatistics {
+
+    public static final ConstructionStatistics DISABLED = new ConstructionStatistics() {
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void end(String name, Automaton<?, ?> automaton, Supplier<Map<String, Long>> footprint) {
+        }
+    };
+
+    public static final class Phase {
+        public final String name;
+        public final long nanos;
+        // -1 if the phase does not produce an automaton
+        public final int states;
+        public final long edges;
+        public final long heapBytes;
+        // estimated bytes per structure family, empty if not estimated
+        public final Map<String, Long> footprint;
+
+        Phase(String name, long nanos, int states, long edges, long heapBytes, Map<String, Long> footprint) {
+            this.name = name;
+            this.nanos = nanos;
+            this.states = states;
+            this.edges = edges;
+            this.heapBytes = heapBytes;
+            this.footprint = Collections.unmodifiableMap(footprint);
+        }
+
+        /**
+         * @return the heap in use, which is not covered by the footprint
+         */
+        public long unattributedBytes() {
+            return heapBytes - footprint.values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final boolean collectGarbage;
+    private long start;
+
+    public ConstructionStatistics() {
+        this(false);
+    }
+
+    /**
+     * @param collectGarbage
+     *            if true, the garbage is collected before the heap of a phase
+     *            with a footprint is measured
+     */
+    public ConstructionStatistics(boolean collectGarbage) {
+        this.collectGarbage = collectGarbage;
+    }
+
+    public void begin() {
+        start = System.nanoTime();
+    }
+
+    /**
+     * Ends a phase, which does not produce an automaton.
+     */
+    public final void end(String name) {
+        end(name, null);
+    }
+
+    public final void end(String name, Automaton<?, ?> automaton) {
+        end(name, automaton, null);
+    }
+
+    /**
+     * @param footprint
+     *            estimates the structures retained after the phase, null if
+     *            they are not estimated. It is only called, if the statistics
+     *            are enabled.
+     */
+    public void end(String name, Automaton<?, ?> automaton, Supplier<Map<String, Long>> footprint) {
+        long nanos = System.nanoTime() - start;
+        int states = -1;
+        long edges = -1;
+
+        if (automaton != null) {
+            states = automaton.size();
+            edges = countEdges(automaton);
+        }
+
+        Map<String, Long> estimates = Collections.emptyMap();
+        if (footprint != null) {
+            estimates = footprint.get();
+            if (collectGarbage) {
+                System.gc();
+            }
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        phases.add(new Phase(name, nanos, states, edges, runtime.totalMemory() - runtime.freeMemory(), estimates));
+    }
+
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * @return a JSON object on a single line, such that the reports of several
+     *         formulas can be collected as NDJSON
+     */
+    public String toJson(String formula) {
+        StringBuilder json = new StringBuilder("{\"formula\":");
+        appendString(json, formula);
+
+        long total = 0;
+        json.append(",\"phases\":[");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            total += phase.nanos;
+
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"phase\":");
+            appendString(json, phase.name);
+            json.append(String.format(Locale.ROOT, ",\"ms\":%.3f", phase.nanos / 1e6));
+            if (phase.states >= 0) {
+                json.append(",\"states\":").append(phase.states).append(",\"edges\":").append(phase.edges);
+            }
+            json.append(",\"heapMB\":").append(phase.heapBytes / (1024 * 1024));
+            if (!phase.footprint.isEmpty()) {
+                json.append(",\"footprintKB\":{");
+                for (Map.Entry<String, Long> family : phase.footprint.entrySet()) {
+                    appendString(json, family.getKey());
+                    json.append(':').append(family.getValue() / 1024).append(',');
+                }
+                json.append("\"unattributed\":").append(phase.unattributedBytes() / 1024).append('}');
+            }
+            json.append('}');
+        }
+        json.append(String.format(Locale.ROOT, "],\"totalMs\":%.3f}", total / 1e6));
+        return json.toString();
+    }
+
+    private static <S extends AutomatonState<S>> long countEdges(Automaton<S, ?> automaton) {
+        long edges = 0;
+        for (S state : automaton.getStates()) {
+            edges += automaton.getSuccessors(state).size();
+        }
+        return edges;
+    }
+
+    private static void appendString(StringBuilder json, String s) {
+        json.append('"');
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -17,13 +17,21 @@
 
 package rabinizer.automata;
 
+import com.google.common.collect.Sets;
+
 import omega_automaton.acceptance.GeneralisedRabinAcceptance;
+import omega_automaton.collections.Collections3;
 import omega_automaton.collections.TranSet;
 import omega_automaton.collections.Tuple;
 import omega_automaton.collections.valuationset.ValuationSetFactory;
+import ltl.Conjunction;
 import ltl.Formula;
+import ltl.GOperator;
 import ltl.UnaryModalOperator;
+import ltl.equivalence.EquivalenceClass;
 import ltl.equivalence.EquivalenceClassFactory;
+import rabinizer.frequencyLTL.FOperatorForMojmir;
+import rabinizer.frequencyLTL.TopMostOperatorVisitor;
 
 import java.util.*;
 import java.util.Map.Entry;
@@ -111,6 +119,86 @@ public class DTGRAFactory extends AbstractAutomatonFactory<RabinSlave, RabinSlav
         return new ProductRabinizer(master, slaves, valuationSetFactory, opts);
     }
 
+    /**
+     * AccLocal uses a Mojmir state as a final state, i.e. if it is implied by
+     * the G-set, and as a premise of slavesEntail, where the G-operators
+     * outside the G-set are false. Two states, which agree on both for every
+     * G-set of topmost operators of the slave, are interchangeable there. If
+     * they are moreover bisimilar, a token in either of them fails and
+     * succeeds at the same time, and they are merged before the ranking is
+     * built.
+     *
+     * With the eager optimisation the premise of a state s under a valuation v
+     * is s & step(s, v) instead, and the step does not commute with replacing
+     * G-operators by false: X G b stays X G b in the premise, but steps to
+     * G b, which is then replaced. Therefore the signature contains this
+     * premise for every valuation of the letters the class of s depends on,
+     * together with these letters. The step of s does not depend on any other
+     * letter. Proof sketch: the premise of slavesEntail is a conjunction over
+     * the states of the ranking, and the step and the replacement both map
+     * equivalent formulas to equivalent formulas and distribute over
+     * conjunctions. Hence exchanging two states with the same signature leaves
+     * the premise equivalent for every ranking and every valuation of the
+     * product. The G-operators occurring in s and step(s, v) are topmost
+     * operators of the slave, since the step only removes X-operators and
+     * states never unfold G-operators, so every ranking is covered by some
+     * G-set.
+     */
+    @Override
+    protected void minimiseMojmirSlave(MojmirSlave mSlave, UnaryModalOperator g, EquivalenceClassFactory factory) {
+        if (opts.contains(Optimisation.MINIMISE_SLAVES)) {
+            Set<Set<UnaryModalOperator>> gSets = Sets.powerSet(g.operand.accept(new TopMostOperatorVisitor()));
+            Map<Set<UnaryModalOperator>, EquivalenceClass> conjunctions = new HashMap<>();
+            List<EquivalenceClass> premises = new ArrayList<>();
+
+            for (Set<UnaryModalOperator> gSet : gSets) {
+                conjunctions.put(gSet, factory.createEquivalenceClass(new Conjunction(gSet)));
+            }
+
+            mSlave.minimise(state -> {
+                List<Object> signature = new ArrayList<>();
+                Formula representative = state.getClazz().getRepresentative();
+                List<List<Formula>> stateConjunctions = new ArrayList<>();
+
+                if (opts.contains(Optimisation.EAGER)) {
+                    BitSet letters = AbstractFormulaState.getSensitive(state.getClazz());
+                    signature.add(letters);
+
+                    for (BitSet valuation : Collections3.powerSet(letters)) {
+                        stateConjunctions.add(Arrays.asList(representative, representative.temporalStep(valuation)));
+                    }
+                } else {
+                    stateConjunctions.add(Collections.singletonList(representative));
+                }
+
+                for (Set<UnaryModalOperator> gSet : gSets) {
+                    for (List<Formula> stateConjunction : stateConjunctions) {
+                        budget.tick();
+                        List<Formula> conjunction = new ArrayList<>(gSet);
+                        conjunction.addAll(stateConjunction);
+                        EquivalenceClass premise = factory.createEquivalenceClass(new Conjunction(conjunction), formula -> {
+                            if ((formula instanceof GOperator || formula instanceof FOperatorForMojmir) && !gSet.contains(formula)) {
+                                return Optional.of(Boolean.FALSE);
+                            }
+
+                            return Optional.empty();
+                        });
+
+                        premises.add(premise);
+                        signature.add(premise);
+                    }
+
+                    signature.add(conjunctions.get(gSet).implies(state.getClazz()));
+                }
+
+                return signature;
+            });
+
+            premises.forEach(EquivalenceClass::free);
+            conjunctions.values().forEach(EquivalenceClass::free);
+        }
+    }
+
     @Override
     protected void optimizeInitialStateOfSelfProductSlave(RabinSlave rSlave) {
         if (opts.contains(Optimisation.OPTIMISE_INITIAL_STATE)) {
@@ -119,7 +207,7 @@ public class DTGRAFactory extends AbstractAutomatonFactory<RabinSlave, RabinSlav
     }
 
     @Override
-    protected RabinSlave obtainSelfProductSlave(MojmirSlave mSlave) {
-        return new RabinSlave(mSlave, valuationSetFactory);
+    protected RabinSlave obtainSelfProductSlave(MojmirSlave mSlave, ValuationSetFactory factory) {
+        return new RabinSlave(mSlave, factory);
     }
 }
@@ -82,7 +82,9 @@ public class DTGRMAFactory extends AbstractAutomatonFactory<FrequencySelfProduct
                     mdpAcceptance.put(freqg, current);
 
                 } else if (g instanceof FOperatorForMojmir) {
-                    Infs.addAll(singleAccCondition.keySet());
+                    // shared by the G-sets with the same final states, and
+                    // removeRedundancy shrinks the Inf sets in place
+                    singleAccCondition.keySet().forEach(set -> Infs.add(set.copy()));
                 } else if (g instanceof GOperator) {
                     singleAccCondition.keySet().forEach(set -> Fin.addAll(set));
                 } else {
@@ -116,13 +118,19 @@ public class DTGRMAFactory extends AbstractAutomatonFactory<FrequencySelfProduct
 
     }
 
+    @Override
+    protected void minimiseMojmirSlave(MojmirSlave mSlave, UnaryModalOperator f, EquivalenceClassFactory factory) {
+        // nothing to do, because merging states would change the number of
+        // tokens, which the frequency slaves count
+    }
+
     @Override
     protected void optimizeInitialStateOfSelfProductSlave(FrequencySelfProductSlave rSlave) {
         // nothing to do, because this optimisation is not (yet) implemented
     }
 
     @Override
-    protected FrequencySelfProductSlave obtainSelfProductSlave(MojmirSlave mSlave) {
-        return new FrequencySelfProductSlave(mSlave, valuationSetFactory);
+    protected FrequencySelfProductSlave obtainSelfProductSlave(MojmirSlave mSlave, ValuationSetFactory factory) {
+        return new FrequencySelfProductSlave(mSlave, factory);
     }
 }
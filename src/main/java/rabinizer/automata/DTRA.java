@@ -38,6 +38,7 @@ public class DTRA extends Automaton<DTRA.ProductDegenState, RabinAcceptance<DTRA
     private static BitSet standardBitSet = new BitSet(0);
 
     private final ProductRabinizer dtgra;
+    private final List<Tuple<TranSet<ProductDegenState>, TranSet<ProductDegenState>>> rabinPairs = new ArrayList<>();
 
     public DTRA(ProductRabinizer dtgra) {
         super(null, dtgra.getFactory());
@@ -66,9 +67,19 @@ public class DTRA extends Automaton<DTRA.ProductDegenState, RabinAcceptance<DTRA
             }
             i++;
             acceptance.addRabinPair(fin, inf);
+            rabinPairs.add(new Tuple<>(fin, inf));
         }
     }
 
+    /**
+     * @return the pairs of the acceptance condition in the order of the
+     *         acceptance, the left side is the Fin-, the right side the
+     *         Inf-set
+     */
+    public List<Tuple<TranSet<ProductDegenState>, TranSet<ProductDegenState>>> getRabinPairs() {
+        return Collections.unmodifiableList(rabinPairs);
+    }
+
     @Override
     protected ProductDegenState generateInitialState() {
         return new ProductDegenState(dtgra.getInitialState(), new int[dtgra.getAcceptance().unmodifiableCopyOfAcceptanceCondition().size()]);
@@ -92,6 +103,7 @@ public class DTRA extends Automaton<DTRA.ProductDegenState, RabinAcceptance<DTRA
         @Nullable
         @Override
         public Edge<ProductDegenState> getSuccessor(BitSet valuation) {
+            dtgra.primaryAutomaton.budget.checkStates(transitions.size());
             Edge<ProductRabinizer.ProductState> successor = dtgra.getSuccessor(productState, valuation);
 
             if (successor == null) {
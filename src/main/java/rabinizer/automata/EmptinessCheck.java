@@ -33,6 +33,7 @@ import java.util.Set;
 public class EmptinessCheck<S extends AutomatonState<S>> {
 
     private final Automaton<S, ? extends GeneralisedRabinAcceptance<S>> automaton;
+    private final Budget budget;
 
     /**
      * This method checks if the automaton is empty and it minimizes the
@@ -45,16 +46,18 @@ public class EmptinessCheck<S extends AutomatonState<S>> {
         if (!(p.getAcceptance() instanceof GeneralisedRabinAcceptance)) {
             throw new IllegalArgumentException("We can (yet) only perform the Emptiness-check for GeneralisedRabinAcceptance.");
         }
-        new EmptinessCheck<>(p).minimiseSCCBased();
+        new EmptinessCheck<>(p, p.primaryAutomaton.budget).minimiseSCCBased();
         return p.getStates().isEmpty();
     }
 
-    private EmptinessCheck(Automaton<S, GeneralisedRabinAcceptance<S>> automaton) {
+    private EmptinessCheck(Automaton<S, GeneralisedRabinAcceptance<S>> automaton, Budget budget) {
         this.automaton = automaton;
+        this.budget = budget;
     }
 
     private void minimiseSCCBased() {
         for (Set<S> SCC : SCCAnalyser.SCCsStates(automaton)) {
+            budget.check();
             TranSet<S> tranSCC = SCCAnalyser.sccToTran(automaton, SCC, new TranSet<S>(automaton.getFactory()));
             removeInterSCCAccConditions(SCC);
 
@@ -81,6 +84,7 @@ public class EmptinessCheck<S extends AutomatonState<S>> {
 
     private void removeInterSCCAccConditions(Set<S> SCC) {
         for (S state : SCC) {
+            budget.tick();
             Map<Edge<S>, ValuationSet> relevantTransitions = automaton.getSuccessors(state);
             for (Map.Entry<Edge<S>, ValuationSet> transition : relevantTransitions.entrySet()) {
                 if (!SCC.contains(transition.getKey().successor)) {
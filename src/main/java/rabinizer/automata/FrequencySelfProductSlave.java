@@ -58,7 +58,7 @@ public final class FrequencySelfProductSlave extends AbstractSelfProductSlave<Fr
             State succ = new State();
             // Move tokens, make use of acyclicity:
             List<Set<MojmirSlave.State>> SCCStates = SCCAnalyser.SCCsStates(mojmir);
-            SCCStates.stream().forEach(set -> set.removeIf(state -> mojmir.isSink(state)));
+            SCCStates.stream().forEach(set -> set.removeIf(state -> mojmir.isSinkState(state)));
             SCCStates.removeIf(set -> set.isEmpty());
 
             for (Set<MojmirSlave.State> stateSet : SCCStates) {
@@ -67,7 +67,7 @@ public final class FrequencySelfProductSlave extends AbstractSelfProductSlave<Fr
                 }
                 stateSet.stream().forEach(s -> {
                     MojmirSlave.State succMojmir = s.getSuccessor(valuation).successor;
-                    if (!mojmir.isSink(succMojmir)) {
+                    if (!mojmir.isSinkState(succMojmir)) {
                         succ.put(succMojmir, (this.get(s) == null ? 0 : this.get(s)) + (succ.get(succMojmir) == null ? 0 : succ.get(succMojmir)));
                     }
                     succ.put(s, 0);
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rabinizer.automata;
+
+import omega_automaton.Automaton;
+import omega_automaton.AutomatonState;
+import omega_automaton.Edge;
+import omega_automaton.collections.TranSet;
+import omega_automaton.collections.Tuple;
+import omega_automaton.collections.valuationset.ValuationSet;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the retained size of the structure families of a construction by
+ * counting their objects and multiplying with the shallow sizes below. The
+ * sizes assume a 64-bit JVM with compressed references, as used for heaps
+ * below 32 GB, and 8 byte alignment.
+ *
+ * The BDD nodes behind equivalence classes and valuation sets are not part of
+ * the estimates, since the factories do not report the occupancy of their
+ * node tables. Only the Java wrappers are counted, the nodes end up in the
+ * unattributed rest of the heap together with formulas and caches.
+ */
+final class HeapFootprint {
+
+    static final String MASTER = "master";
+    static final String MOJMIR_SLAVES = "mojmir slaves";
+    static final String SELF_PRODUCT_SLAVES = "self-product slaves";
+    static final String PRODUCT = "product";
+    static final String ACCEPTANCE = "acceptance";
+
+    // HashMap with its table array, without entries
+    private static final long HASH_MAP = 48 + 16;
+    // per slot of the table of a HashMap, which is at most 75% full
+    private static final long HASH_MAP_SLOT = 4;
+    // HashMap.Node: header, hash, key, value, next
+    private static final long HASH_MAP_NODE = 32;
+    // RegularImmutableMap with its entry and table arrays
+    private static final long IMMUTABLE_MAP = 24 + 16 + 16;
+    // ImmutableMapEntry plus one slot in each of the arrays
+    private static final long IMMUTABLE_MAP_ENTRY = 24 + 4 + 8;
+    // Edge: header, successor, acceptance plus an empty BitSet
+    private static final long EDGE = 24 + 40;
+    // wrapper of a BDD, the nodes are not counted
+    private static final long BDD_WRAPPER = 24;
+    // state object with one or two references, plus its equivalence class
+    private static final long FORMULA_STATE = 16 + BDD_WRAPPER;
+    // ProductState: header, master state, slave map, cached hash
+    private static final long PRODUCT_STATE = 24;
+
+    private HeapFootprint() {
+    }
+
+    /**
+     * @param master
+     *            null if not constructed yet
+     * @param product
+     *            null if not constructed yet
+     * @return the estimated bytes per structure family, in the order of the
+     *         construction. The transitions of an automaton are counted for
+     *         its family.
+     */
+    static Map<String, Long> of(Master master, Collection<? extends AbstractSelfProductSlave<?>> slaves, Product<?> product) {
+        Map<String, Long> footprint = new LinkedHashMap<>();
+
+        if (master != null) {
+            footprint.put(MASTER, master.size() * FORMULA_STATE + transitions(master));
+        }
+
+        long mojmir = 0;
+        long selfProduct = 0;
+        for (AbstractSelfProductSlave<?> slave : slaves) {
+            mojmir += slave.mojmir.size() * FORMULA_STATE + transitions(slave.mojmir);
+            selfProduct += rankMaps(slave) + transitions(slave);
+        }
+        if (!slaves.isEmpty()) {
+            footprint.put(MOJMIR_SLAVES, mojmir);
+            footprint.put(SELF_PRODUCT_SLAVES, selfProduct);
+        }
+
+        if (product != null) {
+            footprint.put(PRODUCT, productStates(product) + transitions(product));
+            if (product.getAcceptance() != null) {
+                footprint.put(ACCEPTANCE, acceptance(product));
+            }
+        }
+
+        return footprint;
+    }
+
+    private static long hashMap(int entries) {
+        // the table grows in powers of two once it is 75% full
+        int slots = Integer.highestOneBit(Math.max(1, entries * 4 / 3)) * 2;
+        return HASH_MAP + slots * HASH_MAP_SLOT + entries * HASH_MAP_NODE;
+    }
+
+    private static <S extends AutomatonState<S>> long transitions(Automaton<S, ?> automaton) {
+        long bytes = hashMap(automaton.size());
+        for (S state : automaton.getStates()) {
+            Map<Edge<S>, ValuationSet> successors = automaton.getSuccessors(state);
+            bytes += hashMap(successors.size()) + successors.size() * (EDGE + BDD_WRAPPER);
+        }
+        return bytes;
+    }
+
+    /**
+     * The ranks are small and therefore shared Integer instances, so only the
+     * maps are counted.
+     */
+    private static <S extends AutomatonState<S>> long rankMaps(AbstractSelfProductSlave<S> slave) {
+        long bytes = 0;
+        for (S state : slave.getStates()) {
+            bytes += hashMap(((Map<?, ?>) state).size());
+        }
+        return bytes;
+    }
+
+    private static <S extends AbstractSelfProductSlave<S>.State> long productStates(Product<S> product) {
+        long bytes = 0;
+        for (Product<S>.ProductState state : product.getStates()) {
+            bytes += PRODUCT_STATE + IMMUTABLE_MAP + state.secondaryStates.size() * IMMUTABLE_MAP_ENTRY;
+        }
+        return bytes;
+    }
+
+    private static <S extends AbstractSelfProductSlave<S>.State> long acceptance(Product<S> product) {
+        long bytes = 0;
+        for (Tuple<TranSet<Product<S>.ProductState>, List<TranSet<Product<S>.ProductState>>> pair : product.getAcceptance().unmodifiableCopyOfAcceptanceCondition()) {
+            bytes += tranSet(pair.left);
+            for (TranSet<Product<S>.ProductState> inf : pair.right) {
+                bytes += tranSet(inf);
+            }
+        }
+        return bytes;
+    }
+
+    private static long tranSet(TranSet<?> set) {
+        int entries = set.asMap().size();
+        return 16 + hashMap(entries) + entries * BDD_WRAPPER;
+    }
+}
@@ -17,41 +17,102 @@
 
 package rabinizer.automata;
 
+import ltl.FOperator;
 import ltl.Formula;
+import ltl.FrequencyG;
+import ltl.GOperator;
+import ltl.Literal;
+import ltl.UOperator;
+import ltl.XOperator;
 import ltl.equivalence.EquivalenceClass;
 import ltl.equivalence.EquivalenceClassFactory;
+import ltl.visitors.DefaultConverter;
 import omega_automaton.Automaton;
+import omega_automaton.AutomatonState;
 import omega_automaton.Edge;
 import omega_automaton.acceptance.AllAcceptance;
+import omega_automaton.collections.Collections3;
+import omega_automaton.collections.Tuple;
+import omega_automaton.collections.valuationset.ValuationSet;
 import omega_automaton.collections.valuationset.ValuationSetFactory;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 class Master extends Automaton<Master.State, AllAcceptance> {
 
+    /**
+     * States with fewer sensitive letters enumerate their valuations, since
+     * the substitutions of the symbolic computation cost more than the
+     * temporal steps they save.
+     */
+    static final int SYMBOLIC_THRESHOLD = 4;
+
     final boolean eager;
     @Nullable
     final EquivalenceClass initialClazz;
+    final Budget budget;
+    // the canonical state of every class, see AbstractFormulaState
+    private final Map<EquivalenceClass, State> states = new HashMap<>();
 
     Master(@Nullable EquivalenceClass clazz, ValuationSetFactory valuationSetFactory, Collection<Optimisation> optimisations) {
+        this(clazz, valuationSetFactory, optimisations, Budget.UNLIMITED);
+    }
+
+    Master(@Nullable EquivalenceClass clazz, ValuationSetFactory valuationSetFactory, Collection<Optimisation> optimisations, Budget budget) {
         super(null, valuationSetFactory);
         initialClazz = clazz;
         eager = optimisations.contains(Optimisation.EAGER);
+        this.budget = budget;
     }
 
     Master(Formula formula, EquivalenceClassFactory equivalenceClassFactory, ValuationSetFactory valuationSetFactory, Collection<Optimisation> optimisations) {
-        this(equivalenceClassFactory.createEquivalenceClass(formula), valuationSetFactory, optimisations);
+        this(formula, equivalenceClassFactory, valuationSetFactory, optimisations, Budget.UNLIMITED);
+    }
+
+    Master(Formula formula, EquivalenceClassFactory equivalenceClassFactory, ValuationSetFactory valuationSetFactory, Collection<Optimisation> optimisations,
+            Budget budget) {
+        this(equivalenceClassFactory.createEquivalenceClass(formula), valuationSetFactory, optimisations, budget);
     }
 
     public State generateInitialState(EquivalenceClass clazz) {
         if (eager) {
-            return new State(clazz.unfold());
+            return intern(clazz.unfold());
         } else {
-            return new State(clazz);
+            return intern(clazz);
+        }
+    }
+
+    State intern(EquivalenceClass clazz) {
+        return states.computeIfAbsent(clazz, State::new);
+    }
+
+    /**
+     * Interns a class, which is owned by the caller, and frees it if an equal
+     * state is already known.
+     */
+    State internOrFree(EquivalenceClass clazz) {
+        State state = intern(clazz);
+        if (state.clazz != clazz) {
+            clazz.free();
         }
+        return state;
     }
 
     @Override
@@ -63,45 +124,349 @@ class Master extends Automaton<Master.State, AllAcceptance> {
         return generateInitialState(initialClazz);
     }
 
-    protected EquivalenceClass step(EquivalenceClass clazz, BitSet valuation) {
+    /**
+     * Explores the master on demand: the successors of a state are computed
+     * when they are requested for the first time and are stored like those
+     * of generate(). Hence only the states reached by the product are
+     * explored, and each of them only once.
+     */
+    Map<Edge<State>, ValuationSet> getSuccessorsOnDemand(State state) {
+        Map<Edge<State>, ValuationSet> successors = transitions.get(state);
+
+        if (successors == null) {
+            successors = state.getSuccessors();
+            transitions.put(state, successors);
+        }
+
+        return successors;
+    }
+
+    protected EquivalenceClass step(State state, BitSet valuation) {
         if (eager) {
-            return clazz.temporalStep(valuation).unfold();
+            EquivalenceClass stepped = state.clazz.temporalStep(valuation);
+            EquivalenceClass successor = stepped.unfold();
+            stepped.free();
+            return successor;
+        } else {
+            return state.unfolded().temporalStep(valuation);
+        }
+    }
+
+    /**
+     * Generates the master with several threads. The states are expanded
+     * level by level, and the states of one level are expanded concurrently.
+     * Since the equivalence classes cannot be shared between threads, every
+     * thread has its own factory and its own master, and the successors are
+     * exchanged as formulas and cubes of valuations. Only the interning of
+     * the successors is sequential. The resulting automaton is the same as
+     * the one of generate().
+     *
+     * @param factory
+     *            the factory of the classes of this master
+     * @param workerFactories
+     *            creates a separate factory for every thread
+     */
+    void generate(int threads, EquivalenceClassFactory factory, Supplier<EquivalenceClassFactory> workerFactories) {
+        if (threads <= 1) {
+            generate();
+            return;
+        }
+
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> new Worker(workerFactories.get()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            Set<State> seen = new HashSet<>();
+            List<State> frontier = new ArrayList<>();
+            frontier.add(getInitialState());
+            seen.add(getInitialState());
+
+            while (!frontier.isEmpty()) {
+                List<Future<List<Tuple<Formula, List<Cube>>>>> results = new ArrayList<>(frontier.size());
+                for (State state : frontier) {
+                    Formula representative = state.clazz.getRepresentative();
+                    results.add(executor.submit(() -> workers.get().successors(representative)));
+                }
+
+                List<State> next = new ArrayList<>();
+                for (int i = 0; i < frontier.size(); i++) {
+                    Map<EquivalenceClass, List<Cube>> cubes = new LinkedHashMap<>();
+                    for (Tuple<Formula, List<Cube>> successor : await(results.get(i))) {
+                        cubes.put(factory.createEquivalenceClass(successor.left), successor.right);
+                    }
+
+                    Map<Edge<State>, ValuationSet> successors = toEdges(cubes);
+                    transitions.put(frontier.get(i), successors);
+
+                    for (Edge<State> edge : successors.keySet()) {
+                        if (seen.add(edge.successor)) {
+                            next.add(edge.successor);
+                        }
+                    }
+                }
+
+                frontier = next;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating the master", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Map<Edge<State>, ValuationSet> toEdges(Map<EquivalenceClass, List<Cube>> cubes) {
+        Map<Edge<State>, ValuationSet> successors = new LinkedHashMap<>();
+
+        cubes.forEach((successor, block) -> {
+            ValuationSet valuations = valuationSetFactory.createEmptyValuationSet();
+            block.forEach(cube -> valuations.addAll(valuationSetFactory.createValuationSet(cube.valuation, cube.letters)));
+
+            successors.put(new Edge<>(internOrFree(successor), new BitSet(0)), valuations);
+        });
+
+        return successors;
+    }
+
+    private static void addCube(Map<EquivalenceClass, List<Cube>> cubes, EquivalenceClass successor, BitSet valuation, BitSet letters) {
+        if (successor.isFalse()) {
+            successor.free();
+            return;
+        }
+
+        List<Cube> known = cubes.get(successor);
+        if (known == null) {
+            known = new ArrayList<>();
+            cubes.put(successor, known);
         } else {
-            return clazz.unfold().temporalStep(valuation);
+            successor.free();
         }
+        known.add(new Cube(valuation, letters));
     }
 
-    public class State extends AbstractFormulaState<State> {
+    /**
+     * Computes the successors of a state by Shannon expansion: the letters of
+     * the unfolded class are substituted one after the other, and a branch
+     * stops as soon as its class no longer depends on the remaining letters.
+     * Each branch is one cube of valuations with the same successor, and the
+     * cubes are grouped by their successor class.
+     */
+    private void expand(EquivalenceClass current, BitSet remaining, BitSet assigned, BitSet valuation, Map<EquivalenceClass, List<Cube>> cubes) {
+        budget.tick();
+
+        if (current.isFalse()) {
+            return;
+        }
+
+        BitSet letters = AbstractFormulaState.getSensitive(current);
+        letters.and(remaining);
+
+        if (letters.isEmpty()) {
+            EquivalenceClass successor = current.temporalStep(valuation);
+
+            if (eager) {
+                EquivalenceClass stepped = successor;
+                successor = stepped.unfold();
+                stepped.free();
+            }
 
-        public State(EquivalenceClass clazz) {
+            addCube(cubes, successor, valuation, assigned);
+            return;
+        }
+
+        int letter = letters.nextSetBit(0);
+        BitSet rest = (BitSet) remaining.clone();
+        rest.clear(letter);
+        BitSet nextAssigned = (BitSet) assigned.clone();
+        nextAssigned.set(letter);
+
+        for (boolean value : new boolean[] { false, true }) {
+            BitSet next = (BitSet) valuation.clone();
+            next.set(letter, value);
+
+            EquivalenceClass substituted = current.apply(formula -> formula.accept(new Assignment(letter, next)));
+            expand(substituted, rest, nextAssigned, next, cubes);
+            substituted.free();
+        }
+    }
+
+    public class State extends AbstractFormulaState<State> implements AutomatonState<State> {
+
+        // the unfolding of clazz, computed once for all valuations and
+        // released by free()
+        @Nullable
+        private EquivalenceClass unfolded;
+
+        private State(EquivalenceClass clazz) {
             super(clazz);
         }
 
         @Nullable
         @Override
         public Edge<State> getSuccessor(BitSet valuation) {
-            EquivalenceClass successor = step(clazz, valuation);
+            budget.tick();
+            EquivalenceClass successor = step(this, valuation);
 
             if (successor.isFalse()) {
+                successor.free();
                 return null;
             }
 
-            return new Edge<>(new State(successor), new BitSet(0));
+            return new Edge<>(internOrFree(successor), new BitSet(0));
         }
 
+        @Nonnull
         @Override
-        public BitSet getSensitiveAlphabet() {
-            return getSensitive(true);
+        public Map<Edge<State>, ValuationSet> getSuccessors() {
+            BitSet sensitive = sharedSensitiveAlphabet();
+
+            if (sensitive.cardinality() < SYMBOLIC_THRESHOLD) {
+                return AutomatonState.super.getSuccessors();
+            }
+
+            return toEdges(successorCubes(sensitive));
+        }
+
+        /**
+         * @return the successor classes together with the cubes of valuations
+         *         leading to them. Unlike getSuccessors(), this neither uses
+         *         the valuation set factory nor interns the successors.
+         */
+        Map<EquivalenceClass, List<Cube>> successorCubes(BitSet sensitive) {
+            Map<EquivalenceClass, List<Cube>> cubes = new LinkedHashMap<>();
+
+            if (sensitive.cardinality() < SYMBOLIC_THRESHOLD) {
+                for (BitSet valuation : Collections3.powerSet(sensitive)) {
+                    budget.tick();
+                    addCube(cubes, step(this, valuation), valuation, sensitive);
+                }
+            } else {
+                expand(eager ? clazz : unfolded(), sensitive, new BitSet(), new BitSet(), cubes);
+            }
+
+            return cubes;
+        }
+
+        @Override
+        protected BitSet computeSensitiveAlphabet() {
+            return getSensitive(unfolded());
+        }
+
+        EquivalenceClass unfolded() {
+            if (unfolded == null) {
+                unfolded = clazz.unfold();
+            }
+            return unfolded;
+        }
+
+        @Override
+        public void free() {
+            states.remove(clazz, this);
+            if (unfolded != null) {
+                unfolded.free();
+                unfolded = null;
+            }
+            super.free();
         }
 
         @Override
         public ValuationSetFactory getFactory() {
             return valuationSetFactory;
         }
+    }
+
+    /**
+     * Replaces the literals of one atom by their value, but only outside of
+     * temporal operators, i.e. for the current letter.
+     */
+    private static final class Assignment extends DefaultConverter {
+        private final int atom;
+        private final BitSet valuation;
+
+        Assignment(int atom, BitSet valuation) {
+            this.atom = atom;
+            this.valuation = valuation;
+        }
 
         @Override
-        protected Object getOuter() {
-            return Master.this;
+        public Formula visit(Literal literal) {
+            return literal.getAtom() == atom ? literal.temporalStep(valuation) : literal;
+        }
+
+        @Override
+        public Formula visit(FOperator fOperator) {
+            return fOperator;
+        }
+
+        @Override
+        public Formula visit(GOperator gOperator) {
+            return gOperator;
+        }
+
+        @Override
+        public Formula visit(FrequencyG freq) {
+            return freq;
+        }
+
+        @Override
+        public Formula visit(UOperator uOperator) {
+            return uOperator;
+        }
+
+        @Override
+        public Formula visit(XOperator xOperator) {
+            return xOperator;
+        }
+    }
+
+    /**
+     * The valuations, which agree with the valuation on the letters.
+     */
+    static final class Cube {
+        final BitSet valuation;
+        final BitSet letters;
+
+        Cube(BitSet valuation, BitSet letters) {
+            this.valuation = valuation;
+            this.letters = letters;
+        }
+    }
+
+    /**
+     * The thread-confined master and factory of one thread of the parallel
+     * generation.
+     */
+    private final class Worker {
+        private final EquivalenceClassFactory factory;
+        private final Master master;
+
+        Worker(EquivalenceClassFactory factory) {
+            this.factory = factory;
+            this.master = new Master((EquivalenceClass) null, null, eager ? EnumSet.of(Optimisation.EAGER) : EnumSet.noneOf(Optimisation.class), budget);
+        }
+
+        List<Tuple<Formula, List<Cube>>> successors(Formula representative) {
+            State state = master.internOrFree(factory.createEquivalenceClass(representative));
+            List<Tuple<Formula, List<Cube>>> successors = new ArrayList<>();
+
+            state.successorCubes(state.sharedSensitiveAlphabet()).forEach((successor, cubes) -> {
+                successors.add(new Tuple<>(successor.getRepresentative(), cubes));
+                successor.free();
+            });
+
+            state.free();
+            return successors;
         }
     }
 }
@@ -17,98 +17,482 @@
 
 package rabinizer.automata;
 
+import ltl.Formula;
 import ltl.UnaryModalOperator;
 import omega_automaton.Automaton;
 import omega_automaton.Edge;
 import omega_automaton.acceptance.AllAcceptance;
+import omega_automaton.collections.Collections3;
+import omega_automaton.collections.Tuple;
 import omega_automaton.collections.valuationset.ValuationSet;
 import omega_automaton.collections.valuationset.ValuationSetFactory;
 import rabinizer.frequencyLTL.UnfoldNoSlaveOperatorVisitor;
 import ltl.equivalence.EquivalenceClass;
 import ltl.equivalence.EquivalenceClassFactory;
 
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class MojmirSlave extends Automaton<MojmirSlave.State, AllAcceptance> {
 
     final UnaryModalOperator label;
     private final boolean eager;
     private final EquivalenceClass initialStateEquivalence;
+    final Budget budget;
+    // the canonical state of every class, see AbstractFormulaState
+    private final Map<EquivalenceClass, State> states = new HashMap<>();
+    // shared by all states, such that common subformulas are unfolded once
+    private final UnfoldNoSlaveOperatorVisitor unfolder = new UnfoldNoSlaveOperatorVisitor();
+
+    // The frozen representation, see freeze(). The states are numbered by
+    // their index in frozenStates, and the successors of the state i are
+    // successorIds[i] for the valuations in labels[i].
+    @Nullable
+    private List<State> frozenStates;
+    private int[][] successorIds;
+    private ValuationSet[][] labels;
+    private BitSet sinks;
+    // Per set of final states, the failing and succeeding valuations of
+    // every frozen state, computed on the first request. The acceptance
+    // construction passes the same set for every product state, hence the
+    // sets are compared by identity instead of hashing them on every lookup.
+    private final Map<Set<State>, ValuationSet[]> failing = new IdentityHashMap<>();
+    private final Map<Set<State>, ValuationSet[]> succeeding = new IdentityHashMap<>();
 
     public MojmirSlave(UnaryModalOperator formula, EquivalenceClassFactory equivalenceClassFactory, ValuationSetFactory valuationSetFactory,
             Collection<Optimisation> optimisations) {
+        this(formula, equivalenceClassFactory, valuationSetFactory, optimisations, Budget.UNLIMITED);
+    }
+
+    public MojmirSlave(UnaryModalOperator formula, EquivalenceClassFactory equivalenceClassFactory, ValuationSetFactory valuationSetFactory,
+            Collection<Optimisation> optimisations, Budget budget) {
         super(null, valuationSetFactory);
         initialStateEquivalence = equivalenceClassFactory.createEquivalenceClass(formula.operand);
         eager = optimisations.contains(Optimisation.EAGER);
         label = formula;
+        this.budget = budget;
     }
 
     @Override
     protected State generateInitialState() {
         if (eager) {
-            return new State(initialStateEquivalence.apply(formula -> formula.accept(new UnfoldNoSlaveOperatorVisitor())));
+            return intern(unfold(initialStateEquivalence));
         } else {
-            return new State(initialStateEquivalence);
+            return intern(initialStateEquivalence);
+        }
+    }
+
+    private EquivalenceClass unfold(EquivalenceClass clazz) {
+        return clazz.apply(formula -> formula.accept(unfolder));
+    }
+
+    State intern(EquivalenceClass clazz) {
+        return states.computeIfAbsent(clazz, State::new);
+    }
+
+    /**
+     * Interns a class, which is owned by the caller, and frees it if an equal
+     * state is already known.
+     */
+    State internOrFree(EquivalenceClass clazz) {
+        State state = intern(clazz);
+        if (state.clazz != clazz) {
+            clazz.free();
+        }
+        return state;
+    }
+
+    /**
+     * Numbers the states reachable from the initial state in breadth-first
+     * order and lists their successors by cubes, such that the slave can be
+     * loaded by {@link #load(Table, EquivalenceClassFactory)} on a slave
+     * with other factories.
+     *
+     * @param ids
+     *            filled with the number of every listed state
+     */
+    Table toTable(Map<State, Integer> ids) {
+        List<State> numbered = new ArrayList<>();
+        Table table = new Table();
+
+        ids.put(getInitialState(), 0);
+        numbered.add(getInitialState());
+
+        for (int i = 0; i < numbered.size(); i++) {
+            State state = numbered.get(i);
+            BitSet letters = state.getSensitiveAlphabet();
+            List<Tuple<Integer, Master.Cube>> edges = new ArrayList<>();
+
+            for (BitSet valuation : Collections3.powerSet(letters)) {
+                State successor = state.getSuccessor(valuation).successor;
+                Integer id = ids.get(successor);
+
+                if (id == null) {
+                    id = numbered.size();
+                    ids.put(successor, id);
+                    numbered.add(successor);
+                }
+
+                edges.add(new Tuple<>(id, new Master.Cube(valuation, letters)));
+            }
+
+            table.states.add(state.clazz.getRepresentative());
+            table.edges.add(edges);
+        }
+
+        return table;
+    }
+
+    /**
+     * Replaces the generation of this slave by a table listed by
+     * {@link #toTable(Map)} for the same formula.
+     *
+     * @param factory
+     *            the factory of this slave
+     * @return the states of this slave in the order of the table
+     */
+    List<State> load(Table table, EquivalenceClassFactory factory) {
+        List<State> numbered = new ArrayList<>(table.states.size());
+
+        // the initial state of a minimised table may have another label
+        for (Formula representative : table.states) {
+            numbered.add(internOrFree(factory.createEquivalenceClass(representative)));
+        }
+        initialState = numbered.get(0);
+
+        for (int i = 0; i < numbered.size(); i++) {
+            Map<Edge<State>, ValuationSet> successors = new LinkedHashMap<>();
+
+            for (Tuple<Integer, Master.Cube> edge : table.edges.get(i)) {
+                Edge<State> key = new Edge<>(numbered.get(edge.left), new BitSet(0));
+                ValuationSet valuations = successors.get(key);
+                if (valuations == null) {
+                    valuations = valuationSetFactory.createEmptyValuationSet();
+                    successors.put(key, valuations);
+                }
+                valuations.addAll(valuationSetFactory.createValuationSet(edge.right.valuation, edge.right.letters));
+            }
+
+            transitions.put(numbered.get(i), successors);
+        }
+
+        return numbered;
+    }
+
+    /**
+     * Merges the states of the generated slave, which are bisimilar with
+     * respect to being a sink and to the given signature, by partition
+     * refinement. Every block is represented by one of its members, the
+     * initial state if it is in the block, which keeps its own label and
+     * transitions. So no state gets a stronger formula than it had. This has
+     * to happen before the slave is frozen.
+     *
+     * @param signature
+     *            states with different signatures are never merged
+     */
+    void minimise(Function<State, Object> signature) {
+        List<State> numbered = new ArrayList<>(getStates());
+        Map<State, Integer> blocks = new HashMap<>();
+        Map<Object, Integer> ids = new HashMap<>();
+
+        for (State state : numbered) {
+            blocks.put(state, blockId(ids, Arrays.asList(isSink(state), signature.apply(state))));
+        }
+
+        while (true) {
+            Map<State, Integer> refined = new HashMap<>();
+            Map<Object, Integer> refinedIds = new HashMap<>();
+
+            for (State state : numbered) {
+                budget.tick();
+                Map<Integer, ValuationSet> successors = new HashMap<>();
+                getSuccessors(state).forEach((edge, valuations) -> successors.merge(blocks.get(edge.successor), valuations, (left, right) -> {
+                    ValuationSet union = left.copy();
+                    union.addAll(right);
+                    return union;
+                }));
+                refined.put(state, blockId(refinedIds, Arrays.asList(blocks.get(state), successors)));
+            }
+
+            if (refinedIds.size() == ids.size()) {
+                break;
+            }
+
+            blocks.putAll(refined);
+            ids = refinedIds;
+        }
+
+        if (ids.size() == numbered.size()) {
+            return;
+        }
+
+        Map<Integer, State> quotient = new LinkedHashMap<>();
+        quotient.put(blocks.get(getInitialState()), getInitialState());
+        for (State state : numbered) {
+            quotient.putIfAbsent(blocks.get(state), state);
+        }
+
+        Map<State, Map<Edge<State>, ValuationSet>> quotientTransitions = new LinkedHashMap<>();
+        quotient.forEach((id, representative) -> {
+            Map<Edge<State>, ValuationSet> successors = new LinkedHashMap<>();
+            getSuccessors(representative).forEach((edge, valuations) -> {
+                Edge<State> key = new Edge<>(quotient.get(blocks.get(edge.successor)), new BitSet(0));
+                ValuationSet known = successors.get(key);
+                if (known == null) {
+                    successors.put(key, valuations);
+                } else {
+                    ValuationSet union = known.copy();
+                    union.addAll(valuations);
+                    successors.put(key, union);
+                }
+            });
+            quotientTransitions.put(representative, successors);
+        });
+
+        transitions.clear();
+        transitions.putAll(quotientTransitions);
+
+        for (State state : numbered) {
+            if (!quotientTransitions.containsKey(state)) {
+                state.free();
+            }
         }
     }
 
+    private static int blockId(Map<Object, Integer> ids, Object key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = ids.size();
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Freezes the generated slave into int-indexed tables, which are used by
+     * the successor computation, the sink test and the failing and
+     * succeeding transitions from then on. The slave must not change
+     * afterwards.
+     */
+    void freeze() {
+        List<State> numbered = new ArrayList<>(getStates());
+        int size = numbered.size();
+
+        for (int i = 0; i < size; i++) {
+            numbered.get(i).id = i;
+        }
+
+        successorIds = new int[size][];
+        labels = new ValuationSet[size][];
+        sinks = new BitSet(size);
+
+        for (int i = 0; i < size; i++) {
+            State state = numbered.get(i);
+            Map<Edge<State>, ValuationSet> successors = getSuccessors(state);
+            successorIds[i] = new int[successors.size()];
+            labels[i] = new ValuationSet[successors.size()];
+
+            int j = 0;
+            for (Entry<Edge<State>, ValuationSet> successor : successors.entrySet()) {
+                successorIds[i][j] = successor.getKey().successor.id;
+                labels[i][j] = successor.getValue();
+                j++;
+            }
+
+            sinks.set(i, isSink(state));
+        }
+
+        frozenStates = numbered;
+    }
+
+    /**
+     * Drops the memoized failing and succeeding valuations. They are only
+     * needed while the acceptance condition is constructed and would
+     * otherwise keep the final-state sets of that construction alive.
+     */
+    void clearAcceptanceCache() {
+        failing.clear();
+        succeeding.clear();
+    }
+
+    /**
+     * The same as isSink, but read from the frozen tables if possible.
+     */
+    boolean isSinkState(State state) {
+        return frozenStates != null && state.id >= 0 ? sinks.get(state.id) : isSink(state);
+    }
+
+    /**
+     * @return the valuations leading from one state to the other, which must
+     *         not be modified
+     */
+    ValuationSet getValuations(State predecessor, State successor) {
+        if (frozenStates != null && predecessor.id >= 0) {
+            for (int j = 0; j < successorIds[predecessor.id].length; j++) {
+                if (successorIds[predecessor.id][j] == successor.id) {
+                    return labels[predecessor.id][j];
+                }
+            }
+            return valuationSetFactory.createEmptyValuationSet();
+        }
+
+        ValuationSet result = valuationSetFactory.createEmptyValuationSet();
+        getSuccessors(predecessor).forEach((edge, valuations) -> {
+            if (edge.successor.equals(successor)) {
+                result.addAll(valuations);
+            }
+        });
+        return result;
+    }
+
     public final class State extends AbstractFormulaState<State> {
-        State(EquivalenceClass clazz) {
+        // the partial unfolding of clazz, computed once for all valuations
+        // and released by free()
+        @Nullable
+        private EquivalenceClass unfolded;
+        // the index in the frozen tables, -1 if the slave is not frozen
+        private int id = -1;
+
+        private State(EquivalenceClass clazz) {
             super(clazz);
         }
 
         @Override
         public Edge<State> getSuccessor(BitSet valuation) {
+            budget.tick();
+            if (frozenStates != null && id >= 0) {
+                for (int j = 0; j < successorIds[id].length; j++) {
+                    if (labels[id][j].contains(valuation)) {
+                        return new Edge<>(frozenStates.get(successorIds[id][j]), new BitSet(0));
+                    }
+                }
+            }
+
             if (eager) {
-                return new Edge<>(new State(clazz.temporalStep(valuation).apply(formula -> formula.accept(new UnfoldNoSlaveOperatorVisitor()))), new BitSet(0));
+                EquivalenceClass stepped = clazz.temporalStep(valuation);
+                EquivalenceClass successor = unfold(stepped);
+                stepped.free();
+                return new Edge<>(internOrFree(successor), new BitSet(0));
             } else {
-                return new Edge<>(new State(clazz.apply(formula -> formula.accept(new UnfoldNoSlaveOperatorVisitor())).temporalStep(valuation)), new BitSet(0));
+                return new Edge<>(internOrFree(unfolded().temporalStep(valuation)), new BitSet(0));
             }
         }
 
         @Override
-        public BitSet getSensitiveAlphabet() {
-            return getSensitive(false);
+        protected BitSet computeSensitiveAlphabet() {
+            return getSensitive(unfolded());
+        }
+
+        EquivalenceClass unfolded() {
+            if (unfolded == null) {
+                unfolded = unfold(clazz);
+            }
+            return unfolded;
         }
 
         @Override
-        protected Object getOuter() {
-            return MojmirSlave.this;
+        public void free() {
+            states.remove(clazz, this);
+            if (unfolded != null) {
+                unfolded.free();
+                unfolded = null;
+            }
+            super.free();
         }
 
+        /**
+         * @return the valuations, for which the token in this state fails
+         */
         ValuationSet getFailingMojmirTransitions(Set<MojmirSlave.State> finalStates) {
+            if (frozenStates == null || id < 0) {
+                return computeFailing(finalStates);
+            }
+
+            ValuationSet[] table = failing.computeIfAbsent(finalStates, key -> new ValuationSet[frozenStates.size()]);
+            if (table[id] == null) {
+                table[id] = computeFailing(finalStates);
+            }
+            return table[id].copy();
+        }
+
+        /**
+         * @return the valuations, for which the token in this state succeeds
+         */
+        ValuationSet getSucceedMojmirTransitions(Set<MojmirSlave.State> finalStates) {
+            if (frozenStates == null || id < 0) {
+                return computeSucceeding(finalStates);
+            }
+
+            ValuationSet[] table = succeeding.computeIfAbsent(finalStates, key -> new ValuationSet[frozenStates.size()]);
+            if (table[id] == null) {
+                table[id] = computeSucceeding(finalStates);
+            }
+            return table[id].copy();
+        }
+
+        private ValuationSet computeFailing(Set<MojmirSlave.State> finalStates) {
             ValuationSet fail = valuationSetFactory.createEmptyValuationSet();
             if (finalStates.contains(this)) {
                 return fail;
             }
-            for (Entry<Edge<MojmirSlave.State>, ValuationSet> valuationSetFailState : MojmirSlave.this.getSuccessors(this).entrySet()) {
-                if (isSink(valuationSetFailState.getKey().successor) && !finalStates.contains(valuationSetFailState.getKey().successor)) {
-                    fail.addAll(valuationSetFailState.getValue());
+            forEachSuccessor((successor, valuations) -> {
+                if (isSinkState(successor) && !finalStates.contains(successor)) {
+                    fail.addAll(valuations);
                 }
-            }
+            });
             return fail;
         }
 
-        ValuationSet getSucceedMojmirTransitions(Set<MojmirSlave.State> finalStates) {
+        private ValuationSet computeSucceeding(Set<MojmirSlave.State> finalStates) {
             ValuationSet succeed = valuationSetFactory.createEmptyValuationSet();
             if (!finalStates.contains(this)) {
-                for (Entry<Edge<MojmirSlave.State>, ValuationSet> valuation : MojmirSlave.this.getSuccessors(this).entrySet()) {
-                    if (finalStates.contains(valuation.getKey().successor)) {
-                        succeed.addAll(valuation.getValue());
+                forEachSuccessor((successor, valuations) -> {
+                    if (finalStates.contains(successor)) {
+                        succeed.addAll(valuations);
                     }
-                }
+                });
             } else if (finalStates.contains(getInitialState())) {
                 succeed.addAll(valuationSetFactory.createUniverseValuationSet());
             }
             return succeed;
         }
 
+        private void forEachSuccessor(BiConsumer<State, ValuationSet> action) {
+            if (frozenStates != null && id >= 0) {
+                for (int j = 0; j < successorIds[id].length; j++) {
+                    action.accept(frozenStates.get(successorIds[id][j]), labels[id][j]);
+                }
+            } else {
+                MojmirSlave.this.getSuccessors(this).forEach((edge, valuations) -> action.accept(edge.successor, valuations));
+            }
+        }
+
         @Override
         public ValuationSetFactory getFactory() {
             return valuationSetFactory;
         }
     }
+
+    /**
+     * A slave as listed by another thread: the representatives of its
+     * states, the initial state first, and for every state the cubes of
+     * valuations leading to the successor with the given index.
+     */
+    static final class Table {
+        final List<Formula> states = new ArrayList<>();
+        final List<List<Tuple<Integer, Master.Cube>>> edges = new ArrayList<>();
+    }
 }
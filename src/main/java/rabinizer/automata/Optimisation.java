@@ -18,5 +18,5 @@
 package rabinizer.automata;
 
 public enum Optimisation {
-    EAGER, SKELETON, ONLY_RELEVANT_SLAVES, COMPUTE_ACC_CONDITION, OPTIMISE_INITIAL_STATE, EMPTINESS_CHECK
+    EAGER, SKELETON, ONLY_RELEVANT_SLAVES, COMPUTE_ACC_CONDITION, OPTIMISE_INITIAL_STATE, EMPTINESS_CHECK, MINIMISE_SLAVES
 }
@@ -22,11 +22,14 @@ import com.google.common.collect.ImmutableMap;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import jhoafparser.consumer.HOAConsumer;
+import jhoafparser.consumer.HOAIntermediate;
+import ltl.Literal;
 import ltl.UnaryModalOperator;
 import rabinizer.automata.MojmirSlave.State;
 import rabinizer.frequencyLTL.SlaveSubformulaVisitor;
 import omega_automaton.Automaton;
 import omega_automaton.AutomatonState;
+import omega_automaton.Edge;
 import omega_automaton.acceptance.GeneralisedRabinAcceptance;
 import omega_automaton.collections.TranSet;
 import omega_automaton.collections.valuationset.ValuationSet;
@@ -34,6 +37,9 @@ import omega_automaton.collections.valuationset.ValuationSetFactory;
 import omega_automaton.output.HOAConsumerExtended;
 import omega_automaton.output.HOAConsumerGeneralisedRabin;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import java.util.*;
 import java.util.function.Function;
 
@@ -111,6 +117,71 @@ public abstract class Product<S extends AbstractSelfProductSlave<S>.State> exten
         hoa.done();
     }
 
+    /**
+     * Explores the product and writes every state as soon as its successors
+     * are known. The transitions are not stored, only the states, which are
+     * needed anyway by the consumer to number the states. The number of states
+     * is not known in advance and is therefore omitted in the header.
+     *
+     * The names of the states are printed with the global Literal.mapping.
+     * Hence it is set to the aliases, if they are given, and the lock of
+     * Literal is held while a state is written, but not while its successors
+     * are computed.
+     */
+    void toHOAStreaming(HOAConsumer ho, @Nullable BiMap<String, Integer> aliases) {
+        if (initialState == null) {
+            initialState = generateInitialState();
+        }
+
+        HOAConsumer withoutSize = new HOAIntermediate(ho) {
+            @Override
+            public void setNumberOfStates(int numberOfStates) {
+                // unknown until the exploration is finished
+            }
+        };
+
+        HOAConsumerExtended hoa;
+        synchronized (Literal.class) {
+            useAliases(aliases);
+            hoa = new HOAConsumerGeneralisedRabin<>(withoutSize, valuationSetFactory, aliases, initialState, acceptance, 0);
+        }
+
+        Set<ProductState> seen = new HashSet<>();
+        Deque<ProductState> workList = new ArrayDeque<>();
+        seen.add(initialState);
+        workList.add(initialState);
+
+        while (!workList.isEmpty()) {
+            ProductState state = workList.remove();
+            primaryAutomaton.budget.checkStates(seen.size());
+            Map<Edge<ProductState>, ValuationSet> successors = state.getSuccessors();
+
+            synchronized (Literal.class) {
+                useAliases(aliases);
+                hoa.addState(state);
+                successors.forEach((edge, valuations) -> hoa.addEdge(valuations, edge.successor));
+                hoa.stateDone();
+            }
+
+            for (Edge<ProductState> edge : successors.keySet()) {
+                if (seen.add(edge.successor)) {
+                    workList.add(edge.successor);
+                }
+            }
+        }
+
+        synchronized (Literal.class) {
+            useAliases(aliases);
+            hoa.done();
+        }
+    }
+
+    private static void useAliases(@Nullable BiMap<String, Integer> aliases) {
+        if (aliases != null) {
+            Literal.mapping = aliases;
+        }
+    }
+
     /**
      * This method is important, because currently the acceptance is computed
      * after the product is constructed.
@@ -148,11 +219,30 @@ public abstract class Product<S extends AbstractSelfProductSlave<S>.State> exten
             return valuationSetFactory;
         }
 
+        @Nullable
+        @Override
+        public Edge<ProductState> getSuccessor(BitSet valuation) {
+            primaryAutomaton.budget.checkStates(transitions.size());
+            return super.getSuccessor(valuation);
+        }
+
+        @Nonnull
+        @Override
+        public Map<Edge<ProductState>, ValuationSet> getSuccessors() {
+            primaryAutomaton.budget.checkStates(transitions.size());
+            return super.getSuccessors();
+        }
+
         @Override
         protected Automaton<Master.State, ?> getPrimaryAutomaton() {
             return primaryAutomaton;
         }
 
+        @Override
+        protected Map<Edge<Master.State>, ValuationSet> getPrimarySuccessors() {
+            return primaryAutomaton.getSuccessorsOnDemand(primaryState);
+        }
+
         @Override
         protected Set<UnaryModalOperator> relevantSecondary(Master.State primaryState) {
             return relevantSecondarySlaves(primaryState);
@@ -55,7 +55,7 @@ final class RabinSlave extends AbstractSelfProductSlave<RabinSlave.State> {
             // move tokens, keeping the lowest only
             for (Entry<MojmirSlave.State, Integer> currRank : entrySet()) {
                 Edge<MojmirSlave.State> succMojmir = currRank.getKey().getSuccessor(valuation);
-                if (!mojmir.isSink(succMojmir.successor)) {
+                if (!mojmir.isSinkState(succMojmir.successor)) {
                     if (((succ.get(succMojmir.successor) == null) || (succ.get(succMojmir.successor) > get(currRank.getKey())))) {
                         succ.put(succMojmir.successor, get(currRank.getKey()));
                     }
@@ -109,16 +109,7 @@ final class RabinSlave extends AbstractSelfProductSlave<RabinSlave.State> {
         }
 
         private ValuationSet getValuationForBuyTrans(MojmirSlave.State predecessor, MojmirSlave.State successor) {
-            Map<Edge<MojmirSlave.State>, ValuationSet> successors = mojmir.getSuccessors(predecessor);
-            ValuationSet result = valuationSetFactory.createEmptyValuationSet();
-
-            successors.forEach((k, v) -> {
-                if (k.successor.equals(successor)) {
-                    result.addAll(v);
-                }
-            });
-
-            return result;
+            return mojmir.getValuations(predecessor, successor);
         }
     }
 }
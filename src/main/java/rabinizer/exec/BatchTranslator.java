@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.exec;
+
+import com.google.common.collect.BiMap;
+
+import ltl.Formula;
+import omega_automaton.collections.Tuple;
+import rabinizer.automata.BudgetExceededException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Translates a whole file of formulas, one formula per line, within one JVM.
+ * Empty lines are skipped. A line, which cannot be parsed, exceeds its budget
+ * or fails otherwise, e.g. by a stack overflow, is reported on the error
+ * stream and does not stop the translation of the remaining lines.
+ *
+ * If more than one job is requested, the formulas are translated on a
+ * work-stealing pool. Every translation creates its own factories, and the
+ * automata are buffered and written in the order of the input. The wall time
+ * of every formula is reported on the error stream.
+ */
+final class BatchTranslator {
+
+    private static final String NUMBER_PLACEHOLDER = "%d";
+
+    /**
+     * Number of translations per job, which may be running or waiting to be
+     * written at the same time. This bounds the memory held by the buffered
+     * automata, if one formula takes much longer than its successors.
+     */
+    private static final int PENDING_PER_JOB = 4;
+
+    private final CLIParser.CmdArguments arguments;
+    private final OutputStream sharedOut;
+
+    private BatchTranslator(CLIParser.CmdArguments arguments, OutputStream sharedOut) {
+        this.arguments = arguments;
+        this.sharedOut = sharedOut;
+    }
+
+    static void run(CLIParser.CmdArguments arguments) throws IOException {
+        InputStream in = arguments.inputFile == null ? System.in : new FileInputStream(arguments.inputFile);
+        OutputStream sharedOut = null;
+
+        if (arguments.outputFile == null) {
+            sharedOut = ChannelOutputStream.toStandardOutput();
+        } else if (!arguments.outputFile.getPath().contains(NUMBER_PLACEHOLDER)) {
+            sharedOut = ChannelOutputStream.toFile(arguments.outputFile);
+        }
+
+        if (arguments.jobs > 1 && !OutputLevel.isSilent()) {
+            // The messages of concurrent constructions would be interleaved.
+            System.err.println("Construction messages are suppressed when translating in parallel.");
+            OutputLevel.setOutputLevel(OutputLevel.SILENT);
+        }
+
+        ExecutorService executor = arguments.jobs > 1 ? Executors.newWorkStealingPool(arguments.jobs) : null;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            BatchTranslator translator = new BatchTranslator(arguments, sharedOut);
+            Deque<Future<Result>> pending = new ArrayDeque<>();
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                if (executor == null) {
+                    translator.write(translator.translate(line, lineNumber, false));
+                    continue;
+                }
+
+                String formula = line;
+                int number = lineNumber;
+                pending.add(executor.submit(() -> translator.translate(formula, number, true)));
+
+                if (pending.size() >= PENDING_PER_JOB * arguments.jobs) {
+                    translator.write(await(pending.remove()));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                translator.write(await(pending.remove()));
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+
+            if (sharedOut != null) {
+                sharedOut.close();
+            }
+        }
+    }
+
+    private static Result await(Future<Result> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a translation");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @param buffered
+     *            if true, the automaton is kept in memory and written later by
+     *            {@link #write(Result)}, otherwise it is written immediately.
+     */
+    private Result translate(String line, int lineNumber, boolean buffered) throws IOException {
+        long start = System.nanoTime();
+
+        Tuple<Formula, BiMap<String, Integer>> formula;
+        try {
+            formula = CLIParser.parseFormula(line, arguments);
+        } catch (ParserWrapperException e) {
+            return new Result(lineNumber, null, e.getMessage(), System.nanoTime() - start);
+        } catch (RuntimeException | StackOverflowError e) {
+            return new Result(lineNumber, null, e.toString(), System.nanoTime() - start);
+        }
+
+        try {
+            if (buffered) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                Main.translate(arguments, formula.left, formula.right, buffer);
+                return new Result(lineNumber, buffer, null, System.nanoTime() - start);
+            }
+
+            if (sharedOut == null) {
+                try (OutputStream out = ChannelOutputStream.toFile(outputFile(lineNumber))) {
+                    Main.translate(arguments, formula.left, formula.right, out);
+                }
+            } else {
+                Main.translate(arguments, formula.left, formula.right, sharedOut);
+            }
+        } catch (BudgetExceededException e) {
+            // apart from streaming mode, nothing has been written yet, since
+            // the output starts after the construction
+            return new Result(lineNumber, null, e.getMessage(), System.nanoTime() - start);
+        } catch (RuntimeException | StackOverflowError | OutOfMemoryError e) {
+            // e.g. a deeply nested formula, which must not stop the batch
+            return new Result(lineNumber, null, e.toString(), System.nanoTime() - start);
+        }
+
+        return new Result(lineNumber, null, null, System.nanoTime() - start);
+    }
+
+    private void write(Result result) throws IOException {
+        if (result.error != null) {
+            System.err.println("line " + result.lineNumber + ": " + result.error);
+            return;
+        }
+
+        if (result.automaton != null) {
+            if (sharedOut == null) {
+                try (OutputStream out = ChannelOutputStream.toFile(outputFile(result.lineNumber))) {
+                    result.automaton.writeTo(out);
+                }
+            } else {
+                result.automaton.writeTo(sharedOut);
+                sharedOut.flush();
+            }
+        }
+
+        System.err.println(String.format(Locale.ROOT, "line %d: %.3f s", result.lineNumber, result.nanos / 1e9));
+    }
+
+    private File outputFile(int lineNumber) {
+        return new File(arguments.outputFile.getPath().replace(NUMBER_PLACEHOLDER, Integer.toString(lineNumber)));
+    }
+
+    private static final class Result {
+        final int lineNumber;
+        // null if the automaton has already been written
+        final ByteArrayOutputStream automaton;
+        // null if the formula has been translated
+        final String error;
+        final long nanos;
+
+        Result(int lineNumber, ByteArrayOutputStream automaton, String error, long nanos) {
+            this.lineNumber = lineNumber;
+            this.automaton = automaton;
+            this.error = error;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import ltl.visitors.RestrictToFGXU;
 import ltl.visitors.predicates.ContainsPredicate;
 
 import org.apache.commons.cli.*;
+import rabinizer.automata.Budget;
 import rabinizer.automata.Optimisation;
 import rabinizer.frequencyLTL.MojmirOperatorVisitor;
 import rabinizer.frequencyLTL.TopMostOperatorVisitor;
@@ -34,17 +35,25 @@ import ltl.equivalence.FactoryRegistry;
 import ltl.parser.Parser;
 import ltl.parser.ParseException;
 import ltl.simplifier.Simplifier;
+import omega_automaton.collections.Tuple;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 class CLIParser {
 
+    private static final long DEFAULT_CACHE_SIZE = 256;
     private static final Options opts = makeOptions();
 
+    // daemon, cache, cache-size, stats, max-time, max-states, max-heap and threads
+    private static final List<String> DAEMON_OPTIONS = Arrays.asList("d", "c", "C", "x", "T", "S", "H", "l");
+
     private static Options makeOptions() {
         Options result = new Options();
         result.addOption("h", "help", false, "prints this help and exits.");
@@ -52,7 +61,7 @@ class CLIParser {
                 "Here you can give the output level. Possible values are 0 (for silent), 1 (default, print only important messages), and 2 (for verbose)");
         result.addOption("a", "automatonType", true,
                 "This option determines the acceptance type of the output automaton. Possible values are tgr (default) for transition based generalized Rabin acceptance, tr for transition based Rabin acceptance, sgr for state based generalized Rabin acceptance, and sr for state based Rabin acceptance.");
-        result.addOption("m", "format", true, "The format in which the automaton is stored. Possible values are hoa (default), dot for the dot syntax.");
+        result.addOption("m", "format", true, "The format in which the automaton is stored. Possible values are hoa (default), dot for the dot syntax, and bin for a compact binary format, which is described in rabinizer.output.BinaryAutomatonWriter.");
         result.addOption("p", "optimisations", true, "This option defines, if optimisations are to be used or not. Possible values are on and off. The default is on");
         result.addOption("e", "eager", false, "This option defines, if eager unfolding is done. Per default it is on if the optimisation flag is on.");
         result.addOption("s", "skeleton", false,
@@ -63,6 +72,8 @@ class CLIParser {
                 "This option defines, if the initial state of the Rabin-slaves is to be optimised. Per default it is on if the optimisation flag is set to on.");
         result.addOption("t", "emptiness-check", false,
                 "This option defines, if at the end of the construction, and emptiness-check is done and all nonaccepting SCCs are removed, and some acceptance conditions are diminished. Per default it is enabled if the optimisation flag is set to on.");
+        result.addOption("M", "minimise-slaves", false,
+                "This option defines, if bisimilar states of the Mojmir-slaves, which are final for and entailed by the same sets of G-formulae, are merged before the Rabin-slaves are built. It is off by default, also if the optimisation flag is on, and is ignored for controller synthesis.");
         result.addOption("y", "simplify-formula", true,
                 "This defines the level of simplification which is used on the formula. Possible values are 0 for only propositional simplification, 1 for modal simplification, and 2 for aggressive simplification. The default is 0, if optimisation is off , and 2 if optimisation is on.");
         result.addOption("u", "output-file", true, "The name of the file, in which the automaton has to be printed. Per default the automaton gets printed on the terminal");
@@ -72,6 +83,26 @@ class CLIParser {
         result.addOption("z", "acc-condition", false, "This flag prohibits computing the acceptance condition. It can be used for benchmarking.");
         result.addOption("U", "use-controller-syntheses-for-MDP-algorithm", false,
                 "This flag should be used if it is desired to employ the algorithm called controller synthesis for MDPs and Frequency LTL\\GU");
+        result.addOption("b", "batch", false,
+                "This flag enables the batch mode: every line of the input file (or of the standard input, if no input file is given) is translated as a separate formula. If the name of the output file contains %d, every automaton is written into its own file, where %d is replaced by the line number of the formula. Otherwise all automata are written one after another into the output file or onto the terminal.");
+        result.addOption("j", "jobs", true,
+                "The number of formulas, which are translated in parallel in batch mode. The automata are written in the order of the input anyway. The default is 1.");
+        result.addOption("l", "threads", true,
+                "The number of threads, which generate the master automaton and construct the slaves of a single formula. Every thread uses its own factories for the equivalence classes and valuation sets. The default is 1.");
+        result.addOption("d", "daemon", true,
+                "This starts a daemon, which keeps running and translates requests. Possible values are stdio for reading the requests from the standard input, or a port number for listening on a TCP socket of localhost. Every request is one line with the usual options, the answer is the automaton followed by a line --DONE-- or a line starting with --ERROR--. Options naming files or directories are rejected in requests. The cache and stats options of the daemon apply to all requests, its max-time, max-states, max-heap and threads options unless a request gives its own. No other option can be given together with the daemon option.");
+        result.addOption("c", "cache", true,
+                "The directory of a cache for the automata, which is kept between runs. Formulas, which are equal after simplification and are translated with the same options, are then only constructed once.");
+        result.addOption("C", "cache-size", true, "The maximal size of the cache directory in megabytes. The least recently used automata are removed first. The default is "
+                + DEFAULT_CACHE_SIZE + ".");
+        result.addOption("T", "max-time", true, "The maximal time in milliseconds for the construction of a single automaton. Per default there is no limit. If a limit is exceeded, the output file is left untouched and Rabinizer exits with status 1.");
+        result.addOption("S", "max-states", true, "The maximal number of states of the product automaton. Per default there is no limit.");
+        result.addOption("H", "max-heap", true,
+                "The maximal heap in megabytes, which may be used during the construction of an automaton. The heap of the whole JVM is measured. Per default there is no limit.");
+        result.addOption("w", "stream", false,
+                "This flag writes the states of the automaton while the product is explored instead of storing the whole product first. It can only be used together with the acc-condition flag, and not for the automaton types tr and sr.");
+        result.addOption("x", "stats", true,
+                "The name of a file, to which statistics about the phases of the construction are appended: the time, the number of states and edges, and the used heap. Every translated formula adds one line in JSON.");
         return result;
     }
 
@@ -83,7 +114,8 @@ class CLIParser {
         AutomatonType autType = AutomatonType.TGR;
         Format format = Format.HOA;
 
-        Set<Optimisation> optimisations = EnumSet.allOf(Optimisation.class);
+        // the minimisation of the slaves has to be requested explicitly
+        Set<Optimisation> optimisations = EnumSet.complementOf(EnumSet.of(Optimisation.MINIMISE_SLAVES));
 
         Simplifier.Strategy simplification = Simplifier.Strategy.NONE;
         File outputFile = null;
@@ -114,12 +146,7 @@ class CLIParser {
             outputFile = new File(file);
         }
 
-        Parser parser = getParser(cmd);
-        try {
-            inputFormula = parser.formula().accept(new RestrictToFGXU());
-        } catch (ParseException e) {
-            throw new ParserWrapperException(e);
-        }
+        boolean controllerSynthesis = cmd.hasOption('U');
 
         if (cmd.hasOption('z')) {
             optimisations.remove(Optimisation.COMPUTE_ACC_CONDITION);
@@ -127,7 +154,7 @@ class CLIParser {
             optimisations.add(Optimisation.COMPUTE_ACC_CONDITION);
         }
 
-        if (cmd.hasOption('U')) {
+        if (controllerSynthesis) {
             // prepare for controller synthesis
 
             optimisations.retainAll(Collections.singleton(Optimisation.COMPUTE_ACC_CONDITION));
@@ -135,13 +162,98 @@ class CLIParser {
             if (outputLevel != 0) {
                 System.err.println("Warning: Optimisations and simplification have been disabled.");
             }
+        }
+
+        boolean stream = cmd.hasOption('w');
+        if (stream && (!cmd.hasOption('z') || autType == AutomatonType.TR || autType == AutomatonType.SR)) {
+            throw new ParserWrapperException("The stream option needs the acc-condition flag and a generalised automaton type.");
+        }
+        if (stream && format == Format.BIN) {
+            throw new ParserWrapperException("The binary format cannot be streamed, since it starts with the number of states.");
+        }
+
+        TranslationCache cache = getCache(cmd);
+        File statisticsFile = cmd.hasOption('x') ? new File(cmd.getOptionValue('x')) : null;
+        long maxTime = getLimit(cmd, 'T', "max-time");
+        long maxStates = getLimit(cmd, 'S', "max-states");
+        long maxHeap = getLimit(cmd, 'H', "max-heap");
+        int threads = getCount(cmd, 'l', "threads");
+
+        if (cmd.hasOption('d')) {
+            Set<String> ignored = getOptionNames(args);
+            ignored.removeAll(DAEMON_OPTIONS);
+            if (!ignored.isEmpty()) {
+                throw new ParserWrapperException("The daemon option can only be combined with the options " + DAEMON_OPTIONS
+                        + ", which are the defaults of every request, but got " + ignored + ".");
+            }
+            return new CmdArguments(outputLevel, autType, format, optimisations, simplification, outputFile, null, FactoryRegistry.Backend.BDD, null, controllerSynthesis, false,
+                    null, 1, cmd.getOptionValue('d'), cache, maxTime, (int) Math.min(maxStates, Integer.MAX_VALUE), maxHeap, stream, statisticsFile, threads);
+        }
+
+        if (cmd.hasOption('b')) {
+            if (cmd.hasOption('f')) {
+                throw new ParserWrapperException("The batch mode reads the formulas from the input file or from the standard input. It cannot be combined with the formula option.");
+            }
+            if (format == Format.BIN && (outputFile == null || !outputFile.getPath().contains("%d"))) {
+                throw new ParserWrapperException("In batch mode the binary format needs an own file for every automaton, i.e. an output file containing %d.");
+            }
+            File inputFile = cmd.hasOption('n') ? new File(cmd.getOptionValue('n')) : null;
+            return new CmdArguments(outputLevel, autType, format, optimisations, simplification, outputFile, null, FactoryRegistry.Backend.BDD, null, controllerSynthesis, true,
+                    inputFile, getCount(cmd, 'j', "jobs"), null, cache, maxTime, (int) Math.min(maxStates, Integer.MAX_VALUE), maxHeap, stream, statisticsFile, threads);
+        }
+
+        Parser parser = getParser(cmd);
+        inputFormula = parseFormula(parser, controllerSynthesis);
+
+        return new CmdArguments(outputLevel, autType, format, optimisations, simplification, outputFile, inputFormula, FactoryRegistry.Backend.BDD, parser.map,
+                controllerSynthesis, false, null, 1, null, cache, maxTime, (int) Math.min(maxStates, Integer.MAX_VALUE), maxHeap, stream, statisticsFile, threads);
+    }
+
+    /**
+     * Returns the short names of the options in args without interpreting
+     * them. In contrast to parseArgs, neither files nor directories are
+     * touched.
+     */
+    static Set<String> getOptionNames(String... args) throws ParserWrapperException {
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(opts, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            throw new ParserWrapperException(e);
+        }
+
+        Set<String> names = new HashSet<>();
+        for (Option option : cmd.getOptions()) {
+            names.add(option.getOpt());
+        }
+        return names;
+    }
+
+    /**
+     * Parses a single formula, as it is done for each line of the input in
+     * batch mode. The left side of the result is the formula, the right side
+     * the mapping of the atomic propositions.
+     */
+    static Tuple<Formula, BiMap<String, Integer>> parseFormula(String formula, CmdArguments arguments) throws ParserWrapperException {
+        Parser parser = new Parser(new StringReader(formula));
+        return new Tuple<>(parseFormula(parser, arguments.controllerSynthesis), parser.map);
+    }
+
+    private static Formula parseFormula(Parser parser, boolean controllerSynthesis) throws ParserWrapperException {
+        Formula inputFormula;
+        try {
+            inputFormula = parser.formula().accept(new RestrictToFGXU());
+        } catch (ParseException e) {
+            throw new ParserWrapperException(e);
+        }
+
+        if (controllerSynthesis) {
             inputFormula = inputFormula.accept(new MojmirOperatorVisitor());
             Set<UnaryModalOperator> gSubformulae = inputFormula.accept(new TopMostOperatorVisitor());
             if (gSubformulae.stream().filter(op -> op instanceof GOperator).anyMatch(g -> g.accept(new ContainsPredicate(UOperator.class)))) {
                 throw new ParserWrapperException("The controller synthesis construction works only for fLTL\\GU."
                         + "If your formula contains no frequency-G, then maybe you want to drop the -U option to use the Rabinizer construction, which can cope with LTL");
             }
-
         } else {
             if (inputFormula.accept(new ContainsPredicate(FrequencyG.class))) {
                 throw new ParserWrapperException("The Rabinizer-construction does not work with FrequencyG operator. "
@@ -149,7 +261,7 @@ class CLIParser {
             }
         }
 
-        return new CmdArguments(outputLevel, autType, format, optimisations, simplification, outputFile, inputFormula, FactoryRegistry.Backend.BDD, parser.map);
+        return inputFormula;
     }
 
     private static Parser getParser(CommandLine cmd) throws ParserWrapperException {
@@ -214,6 +326,10 @@ class CLIParser {
         if (cmd.hasOption('t')) {
             optimisations.add(Optimisation.EMPTINESS_CHECK);
         }
+
+        if (cmd.hasOption('M')) {
+            optimisations.add(Optimisation.MINIMISE_SLAVES);
+        }
     }
 
     private static Format getOutputFormat(CommandLine cmd) throws ParserWrapperException {
@@ -224,6 +340,8 @@ class CLIParser {
                     return Format.DOT;
                 case "hoa":
                     return Format.HOA;
+                case "bin":
+                    return Format.BIN;
                 default:
                     System.out.println("wrong format-argument. Look at the help printed below.");
                     printHelp();
@@ -283,6 +401,70 @@ class CLIParser {
         return result;
     }
 
+    private static TranslationCache getCache(CommandLine cmd) throws ParserWrapperException {
+        if (!cmd.hasOption('c')) {
+            return null;
+        }
+
+        long size = DEFAULT_CACHE_SIZE;
+        if (cmd.hasOption('C')) {
+            try {
+                size = Long.parseLong(cmd.getOptionValue('C'));
+            } catch (NumberFormatException e) {
+                System.out.println("Wrong format for cache-size option. Look at the help printed below.");
+                printHelp();
+                throw new ParserWrapperException(e);
+            }
+        }
+
+        return new TranslationCache(new File(cmd.getOptionValue('c')), size * 1024 * 1024);
+    }
+
+    /**
+     * @return the limit given by the option, or 0 if there is no limit
+     */
+    private static long getLimit(CommandLine cmd, char option, String name) throws ParserWrapperException {
+        if (!cmd.hasOption(option)) {
+            return 0;
+        }
+
+        long limit;
+        try {
+            limit = Long.parseLong(cmd.getOptionValue(option));
+        } catch (NumberFormatException e) {
+            System.out.println("Wrong format for " + name + " option. Look at the help printed below.");
+            printHelp();
+            throw new ParserWrapperException(e);
+        }
+        if (limit <= 0) {
+            System.out.println("Wrong number for " + name + " option. Look at the help printed below.");
+            printHelp();
+            throw new ParserWrapperException();
+        }
+        return limit;
+    }
+
+    private static int getCount(CommandLine cmd, char option, String name) throws ParserWrapperException {
+        if (!cmd.hasOption(option)) {
+            return 1;
+        }
+
+        int count;
+        try {
+            count = Integer.parseInt(cmd.getOptionValue(option));
+        } catch (NumberFormatException e) {
+            System.out.println("Wrong format for " + name + " option. Look at the help printed below.");
+            printHelp();
+            throw new ParserWrapperException(e);
+        }
+        if (count < 1) {
+            System.out.println("Wrong number for " + name + " option. Look at the help printed below.");
+            printHelp();
+            throw new ParserWrapperException();
+        }
+        return count;
+    }
+
     private static AutomatonType getAutomatonType(CommandLine cmd) throws ParserWrapperException {
         if (cmd.hasOption('a') && cmd.hasOption('U')) {
             throw new ParserWrapperException("The 'U' and 'a' option do not go well with each other");
@@ -315,7 +497,7 @@ class CLIParser {
     }
 
     public enum Format {
-        HOA, DOT
+        HOA, DOT, BIN
     }
 
     static final class CmdArguments {
@@ -329,9 +511,28 @@ class CLIParser {
         final Formula inputFormula;
         final FactoryRegistry.Backend backend;
         final BiMap<String, Integer> mapping;
+        final boolean controllerSynthesis;
+        final boolean batch;
+        // null means the standard input in batch mode
+        final File inputFile;
+        final int jobs;
+        // null if no daemon is to be started
+        final String daemon;
+        // null if no cache is used
+        final TranslationCache cache;
+        // 0 means that there is no limit
+        final long maxTime;
+        final int maxStates;
+        final long maxHeap;
+        final boolean stream;
+        // null if no statistics are recorded
+        final File statisticsFile;
+        final int threads;
 
         private CmdArguments(int outputLevel, AutomatonType autType, Format format, Set<Optimisation> optimisations, Simplifier.Strategy strat, File outputFile,
-                Formula inputFormula, FactoryRegistry.Backend backend, BiMap<String, Integer> mapping) {
+                Formula inputFormula, FactoryRegistry.Backend backend, BiMap<String, Integer> mapping, boolean controllerSynthesis, boolean batch, File inputFile,
+                int jobs, String daemon, TranslationCache cache, long maxTime, int maxStates, long maxHeap,
+                boolean stream, File statisticsFile, int threads) {
             this.outputLevel = outputLevel;
             this.autType = autType;
             this.format = format;
@@ -341,6 +542,40 @@ class CLIParser {
             this.inputFormula = inputFormula;
             this.backend = backend;
             this.mapping = mapping;
+            this.controllerSynthesis = controllerSynthesis;
+            this.batch = batch;
+            this.inputFile = inputFile;
+            this.jobs = jobs;
+            this.daemon = daemon;
+            this.cache = cache;
+            this.maxTime = maxTime;
+            this.maxStates = maxStates;
+            this.maxHeap = maxHeap;
+            this.stream = stream;
+            this.statisticsFile = statisticsFile;
+            this.threads = threads;
+        }
+
+        /**
+         * The arguments of a daemon request. The cache and the statistics
+         * file are the ones of the daemon. The budget and the threads are the
+         * ones of the daemon, unless the request gives its own.
+         *
+         * @param given
+         *            the options of the request, see getOptionNames
+         */
+        CmdArguments withDaemonDefaults(CmdArguments daemon, Set<String> given) {
+            return new CmdArguments(outputLevel, autType, format, optimisations, simplification, outputFile, inputFormula, backend, mapping, controllerSynthesis,
+                    batch, inputFile, jobs, null, daemon.cache, given.contains("T") ? maxTime : daemon.maxTime, given.contains("S") ? maxStates : daemon.maxStates,
+                    given.contains("H") ? maxHeap : daemon.maxHeap, stream, daemon.statisticsFile, given.contains("l") ? threads : daemon.threads);
+        }
+
+        /**
+         * The time of the budget starts running immediately, hence a new
+         * budget is needed for every construction.
+         */
+        Budget newBudget() {
+            return Budget.of(maxTime, maxStates, maxHeap);
         }
     }
 
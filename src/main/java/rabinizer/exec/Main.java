@@ -25,6 +25,7 @@ import jhoafparser.consumer.HOAIntermediateStoreAndManipulate;
 import jhoafparser.transformations.ToStateAcceptance;
 import rabinizer.automata.*;
 import rabinizer.exec.CLIParser.AutomatonType;
+import rabinizer.output.BinaryAutomatonWriter;
 import omega_automaton.Automaton;
 import omega_automaton.collections.valuationset.BDDValuationSetFactory;
 import omega_automaton.collections.valuationset.ValuationSetFactory;
@@ -33,23 +34,22 @@ import ltl.Literal;
 import ltl.equivalence.EquivalenceClassFactory;
 import ltl.simplifier.Simplifier;
 
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.Set;
 
 public class Main {
 
-    private static long clock2;
-
-    public static double stopwatchLocal() {
-        long start = clock2;
-        clock2 = System.currentTimeMillis();
-        return (clock2 - start) / 1000.0;
-    }
-
     // Parsing arguments
     public static void main(String... args) throws IOException {
 
@@ -63,6 +63,12 @@ public class Main {
             System.err.println("Rabinizer aborted");
             return;
         }
+
+        if (arguments.daemon != null) {
+            Server.run(arguments);
+            return;
+        }
+
         OutputLevel.setOutputLevel(OutputLevel.getOutputLevel(arguments.outputLevel));
 
         OutputLevel.nonsilent("\n******************************************************************************\n"
@@ -77,61 +83,171 @@ public class Main {
                 + "* Version 3.2. by Salomon Sickert and Christopher Ziegler                    *\n"
                 + "******************************************************************************");
 
-        Automaton<?, ?> automaton = computeAutomaton(arguments.inputFormula, arguments.autType, arguments.simplification, arguments.backend, arguments.optimisations,
-                arguments.mapping);
+        if (arguments.batch) {
+            BatchTranslator.run(arguments);
+            return;
+        }
 
-        OutputLevel.nonsilent("Done!");
+        // write a temporary file first, such that an aborted construction
+        // neither truncates an existing output file nor leaves a partial one
+        Path target = arguments.outputFile == null ? null : arguments.outputFile.getAbsoluteFile().toPath();
+        Path temp = target == null ? null : Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        boolean complete = false;
 
-        HOAConsumer outputPipeline;
-        FileOutputStream ops = null;
-        if (arguments.outputFile == null) {
-            outputPipeline = arguments.format == CLIParser.Format.DOT
-                    ? new omega_automaton.output.DotPrinter(new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) : new HOAConsumerPrint(System.out);
-        } else {
-            ops = new FileOutputStream(arguments.outputFile);
-            if (arguments.format == CLIParser.Format.DOT)
-                outputPipeline = new omega_automaton.output.DotPrinter(new PrintWriter(new OutputStreamWriter(ops, StandardCharsets.UTF_8)));
-            else
-                outputPipeline = new HOAConsumerPrint(ops);
+        try {
+            OutputStream out = temp == null ? ChannelOutputStream.toStandardOutput() : ChannelOutputStream.toFile(temp.toFile());
+            try {
+                translate(arguments, arguments.inputFormula, arguments.mapping, out);
+            } finally {
+                out.close();
+            }
+
+            if (temp != null) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            complete = true;
+        } catch (BudgetExceededException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Rabinizer aborted");
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
         }
 
-        if (arguments.autType == CLIParser.AutomatonType.SGR || arguments.autType == CLIParser.AutomatonType.SR) {
-            outputPipeline = new HOAIntermediateStoreAndManipulate(outputPipeline, new ToStateAcceptance());
+        if (!complete) {
+            System.exit(1);
         }
+    }
+
+    /**
+     * Translates a single formula and writes the automaton in the format given
+     * by the arguments into out. The stream is not closed afterwards.
+     */
+    static void translate(CLIParser.CmdArguments arguments, Formula inputFormula, BiMap<String, Integer> mapping, OutputStream out) throws IOException {
+        ConstructionStatistics statistics = arguments.statisticsFile == null ? ConstructionStatistics.DISABLED : new ConstructionStatistics();
+
+        statistics.begin();
+        Formula formula = simplify(inputFormula, arguments.simplification, mapping);
+        statistics.end("simplification");
 
-        automaton.toHOA(outputPipeline, arguments.mapping);
-        if (ops != null) {
-            ops.close();
+        if (arguments.cache == null) {
+            produce(arguments, formula, mapping, out, statistics);
+        } else {
+            String key = TranslationCache.key(formula, mapping, arguments);
+            statistics.begin();
+            byte[] automaton = arguments.cache.get(key);
+            statistics.end("cache lookup");
+
+            if (automaton == null) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                produce(arguments, formula, mapping, buffer, statistics);
+                automaton = buffer.toByteArray();
+                arguments.cache.put(key, automaton);
+            } else {
+                OutputLevel.nonsilent("Taken from the cache.");
+            }
+
+            OutputLevel.verboseln(arguments.cache.statistics());
+            out.write(automaton);
+            out.flush();
+        }
+
+        if (arguments.statisticsFile != null) {
+            String report;
+            synchronized (Literal.class) {
+                Literal.mapping = mapping;
+                report = statistics.toJson(inputFormula.toString());
+            }
+            appendStatistics(arguments.statisticsFile, report);
         }
     }
 
-    private static Automaton<?, ?> computeAutomaton(Formula inputFormula, CLIParser.AutomatonType type, Simplifier.Strategy simplify,
-            ltl.equivalence.FactoryRegistry.Backend backend, Set<Optimisation> opts, BiMap<String, Integer> mapping) {
+    /**
+     * The reports of all translations are appended, one line per formula.
+     */
+    private static synchronized void appendStatistics(File file, String report) throws IOException {
+        Files.write(file.toPath(), Collections.singletonList(report), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
 
-        Literal.mapping = mapping;
-        OutputLevel.nonsilent("Formula unsimplified: " + inputFormula);
+    private static void produce(CLIParser.CmdArguments arguments, Formula formula, BiMap<String, Integer> mapping, OutputStream out, ConstructionStatistics statistics)
+            throws IOException {
+        if (!arguments.stream) {
+            Automaton<?, ?> automaton = computeAutomaton(formula, arguments, mapping, statistics);
+            OutputLevel.nonsilent("Done!");
+            statistics.begin();
+            write(arguments, automaton, mapping, out);
+            statistics.end("output");
+            return;
+        }
 
-        inputFormula = Simplifier.simplify(inputFormula, simplify);
-        OutputLevel.nonsilent("Formula simplified:" + inputFormula);
+        AbstractAutomatonFactory<?, ?, ?> automataFactory = createFactory(formula, arguments, mapping, statistics);
 
-        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(backend, inputFormula);
+        // The product takes the lock of Literal for every state it writes.
+        automataFactory.constructAutomatonStreaming(createOutputPipeline(arguments, out), mapping);
+    }
 
-        ValuationSetFactory valuationSetFactory = new BDDValuationSetFactory(mapping.values().size());
+    private static void write(CLIParser.CmdArguments arguments, Automaton<?, ?> automaton, BiMap<String, Integer> mapping, OutputStream out) throws IOException {
+        if (arguments.format == CLIParser.Format.BIN) {
+            if (automaton instanceof DTRA) {
+                BinaryAutomatonWriter.write((DTRA) automaton, mapping, out);
+            } else {
+                BinaryAutomatonWriter.write((Product<?>) automaton, mapping, out);
+            }
+            return;
+        }
 
-        AbstractAutomatonFactory<?, ?, ?> automataFactory;
+        // Literal.mapping is global and used for printing the states, hence
+        // concurrent translations have to take turns while writing.
+        synchronized (Literal.class) {
+            Literal.mapping = mapping;
+            automaton.toHOA(createOutputPipeline(arguments, out), mapping);
+        }
+    }
 
-        if (type == AutomatonType.MDP) {
-            automataFactory = new DTGRMAFactory(inputFormula, factory, valuationSetFactory, opts);
+    private static HOAConsumer createOutputPipeline(CLIParser.CmdArguments arguments, OutputStream out) {
+        HOAConsumer outputPipeline;
+        if (arguments.format == CLIParser.Format.DOT) {
+            outputPipeline = new omega_automaton.output.DotPrinter(new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
         } else {
-            automataFactory = new DTGRAFactory(inputFormula, factory, valuationSetFactory, opts);
+            outputPipeline = new HOAConsumerPrint(out);
+        }
+
+        if (arguments.autType == CLIParser.AutomatonType.SGR || arguments.autType == CLIParser.AutomatonType.SR) {
+            outputPipeline = new HOAIntermediateStoreAndManipulate(outputPipeline, new ToStateAcceptance());
+        }
+
+        return outputPipeline;
+    }
+
+    private static Formula simplify(Formula inputFormula, Simplifier.Strategy simplify, BiMap<String, Integer> mapping) {
+        Formula formula = Simplifier.simplify(inputFormula, simplify);
+
+        // The mapping is only needed for printing. It is set under the lock
+        // like for the output, and only if anything is printed, which is
+        // never the case for parallel translations.
+        if (!OutputLevel.isSilent()) {
+            synchronized (Literal.class) {
+                Literal.mapping = mapping;
+                OutputLevel.nonsilent("Formula unsimplified: " + inputFormula);
+                OutputLevel.nonsilent("Formula simplified:" + formula);
+            }
         }
 
-        Product<?> dtgra = automataFactory.constructAutomaton();
+        return formula;
+    }
+
+    private static Automaton<?, ?> computeAutomaton(Formula inputFormula, CLIParser.CmdArguments arguments, BiMap<String, Integer> mapping,
+            ConstructionStatistics statistics) {
+        Product<?> dtgra = createFactory(inputFormula, arguments, mapping, statistics).constructAutomaton();
 
-        switch (type) {
+        switch (arguments.autType) {
             case SR:
             case TR:
-                return new DTRA((ProductRabinizer) dtgra);
+                statistics.begin();
+                DTRA dtra = new DTRA((ProductRabinizer) dtgra);
+                statistics.end("degeneralisation", dtra);
+                return dtra;
 
             case SGR:
             case TGR:
@@ -139,4 +255,26 @@ public class Main {
                 return dtgra;
         }
     }
+
+    private static AbstractAutomatonFactory<?, ?, ?> createFactory(Formula inputFormula, CLIParser.CmdArguments arguments, BiMap<String, Integer> mapping,
+            ConstructionStatistics statistics) {
+        Set<Optimisation> opts = arguments.optimisations;
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(arguments.backend, inputFormula);
+
+        ValuationSetFactory valuationSetFactory = new BDDValuationSetFactory(mapping.values().size());
+
+        AbstractAutomatonFactory<?, ?, ?> automataFactory;
+
+        if (arguments.autType == AutomatonType.MDP) {
+            automataFactory = new DTGRMAFactory(inputFormula, factory, valuationSetFactory, opts);
+        } else {
+            automataFactory = new DTGRAFactory(inputFormula, factory, valuationSetFactory, opts);
+        }
+
+        automataFactory.setBudget(arguments.newBudget());
+        automataFactory.setStatistics(statistics);
+        automataFactory.setParallelism(arguments.threads, () -> ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(arguments.backend, inputFormula),
+                () -> new BDDValuationSetFactory(mapping.values().size()));
+        return automataFactory;
+    }
 }
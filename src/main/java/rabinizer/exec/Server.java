@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.exec;
+
+import rabinizer.automata.BudgetExceededException;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-running translator, which saves the start-up of the JVM for every
+ * formula. Every request is a single line containing the same options as the
+ * command line, e.g. <code>-f "G F a" -a tr</code>. Arguments containing
+ * spaces can be quoted with single or double quotes. The answer is the
+ * automaton followed by a line {@value #DONE}, or a single line starting with
+ * {@value #ERROR} followed by the reason.
+ *
+ * Since any local user may connect to the port, a request must not name files
+ * or directories, i.e. the options input-file, output-file, cache, cache-size
+ * and stats are rejected. The cache and the stats file of the daemon are used
+ * for all requests instead. Its max-time, max-states, max-heap and threads
+ * options are the defaults of every request.
+ *
+ * An answer is only written once it is complete, so a request which exceeds
+ * its budget or fails while writing the automaton, also with the stream
+ * option, never leaves a partial automaton on the connection.
+ *
+ * The daemon is always silent, the output level of a request is ignored.
+ */
+final class Server {
+
+    static final String DONE = "--DONE--";
+    static final String ERROR = "--ERROR--";
+
+    private static final String STDIO = "stdio";
+
+    // input-file, output-file, cache, cache-size, stats, batch and daemon
+    private static final List<String> FORBIDDEN_OPTIONS = Arrays.asList("n", "u", "c", "C", "x", "b", "d");
+
+    private Server() {
+    }
+
+    /**
+     * @param daemon
+     *            the arguments of the daemon, its daemon field is either stdio
+     *            or the port on localhost to listen on
+     */
+    static void run(CLIParser.CmdArguments daemon) throws IOException {
+        OutputLevel.setOutputLevel(OutputLevel.SILENT);
+        String mode = daemon.daemon;
+
+        if (STDIO.equals(mode)) {
+            // Everything else printed on the standard output would end up in
+            // the middle of an answer.
+            PrintStream out = System.out;
+            System.setOut(System.err);
+            serve(daemon, System.in, out);
+            return;
+        }
+
+        int port;
+        try {
+            port = Integer.parseInt(mode);
+        } catch (NumberFormatException e) {
+            System.err.println("The daemon option expects stdio or a port number, but got " + mode);
+            return;
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            System.err.println("Listening on " + serverSocket.getLocalSocketAddress());
+
+            while (true) {
+                Socket client = serverSocket.accept();
+                executor.execute(() -> {
+                    try (Socket socket = client) {
+                        serve(daemon, socket.getInputStream(), new BufferedOutputStream(socket.getOutputStream()));
+                    } catch (IOException e) {
+                        System.err.println("Connection closed: " + e.getMessage());
+                    }
+                });
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void serve(CLIParser.CmdArguments daemon, InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            try {
+                answer(daemon, line, out);
+            } catch (RuntimeException | StackOverflowError | OutOfMemoryError e) {
+                // e.g. a deeply nested formula, which must not stop the daemon
+                writeLine(out, ERROR + ' ' + e);
+            }
+            out.flush();
+        }
+    }
+
+    private static void answer(CLIParser.CmdArguments daemon, String request, OutputStream out) throws IOException {
+        CLIParser.CmdArguments arguments;
+        try {
+            String[] args = tokenize(request);
+
+            Set<String> given = CLIParser.getOptionNames(args);
+            Set<String> forbidden = new HashSet<>(given);
+            forbidden.retainAll(FORBIDDEN_OPTIONS);
+            if (!forbidden.isEmpty()) {
+                writeLine(out, ERROR + " The options " + forbidden + " cannot be used in a request.");
+                return;
+            }
+
+            arguments = CLIParser.parseArgs(args).withDaemonDefaults(daemon, given);
+        } catch (ParserWrapperException e) {
+            writeLine(out, ERROR + ' ' + e.getMessage());
+            return;
+        }
+
+        if (arguments.format == CLIParser.Format.BIN) {
+            writeLine(out, ERROR + " The binary format can only be written into an output file, which cannot be given in a request.");
+            return;
+        }
+
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        try {
+            Main.translate(arguments, arguments.inputFormula, arguments.mapping, answer);
+        } catch (BudgetExceededException e) {
+            writeLine(out, ERROR + ' ' + e.getMessage());
+            return;
+        }
+
+        answer.writeTo(out);
+        writeLine(out, DONE);
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        // Messages may span several lines, but an answer has to end with a
+        // single marker line.
+        out.write((line.replace('\n', ' ') + '\n').getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Splits a request at whitespace, except within single or double quotes.
+     */
+    static String[] tokenize(String request) throws ParserWrapperException {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+
+        for (char c : request.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+
+        if (quote != 0) {
+            throw new ParserWrapperException("Unterminated quote in request: " + request);
+        }
+
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+
+        return tokens.toArray(new String[tokens.size()]);
+    }
+}
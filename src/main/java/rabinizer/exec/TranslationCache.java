@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.exec;
+
+import com.google.common.collect.BiMap;
+
+import ltl.Formula;
+import ltl.Literal;
+import rabinizer.automata.Optimisation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache on disk for the printed automata, which survives single runs. An
+ * entry is addressed by the simplified formula, the atomic propositions, the
+ * optimisations, the automaton type and the output format. The file name is
+ * the SHA-256 of this key, and the key itself is stored at the beginning of
+ * the file and compared on every lookup, such that a collision only results
+ * in a miss.
+ *
+ * The directory is bounded in size: after every insertion the least recently
+ * used entries are removed. Problems with the directory are reported on the
+ * error stream and do not abort the translation.
+ */
+final class TranslationCache {
+
+    /**
+     * Has to be increased whenever the construction or the printing of the
+     * automata changes, since otherwise stale automata are reused.
+     */
+    private static final String FORMAT_VERSION = "rabinizer-cache 1";
+    private static final String SUFFIX = ".cache";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    TranslationCache(File directory, long maxBytes) {
+        this.directory = directory.toPath();
+        this.maxBytes = maxBytes;
+    }
+
+    static String key(Formula simplifiedFormula, BiMap<String, Integer> mapping, CLIParser.CmdArguments arguments) {
+        StringBuilder key = new StringBuilder(FORMAT_VERSION);
+        key.append('|').append(arguments.autType).append('|').append(arguments.format).append(arguments.stream ? "|stream" : "");
+        key.append('|').append(arguments.optimisations.isEmpty() ? EnumSet.noneOf(Optimisation.class) : EnumSet.copyOf(arguments.optimisations));
+        key.append('|').append(new TreeMap<>(mapping.inverse()));
+
+        // the literals are printed using the global mapping
+        synchronized (Literal.class) {
+            Literal.mapping = mapping;
+            key.append('|').append(simplifiedFormula);
+        }
+
+        return key.toString().replace('\n', ' ');
+    }
+
+    /**
+     * @return the printed automaton, or null if there is no entry for the key
+     */
+    byte[] get(String key) {
+        Path file = directory.resolve(fileName(key));
+        byte[] content;
+
+        try {
+            content = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            System.err.println("Could not read from the cache: " + e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+
+        byte[] header = header(key);
+        if (content.length < header.length || !Arrays.equals(header, Arrays.copyOf(content, header.length))) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            // the modification time is the time of the last use
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // only affects the order of eviction
+        }
+
+        hits.incrementAndGet();
+        return Arrays.copyOfRange(content, header.length, content.length);
+    }
+
+    void put(String key, byte[] automaton) {
+        byte[] header = header(key);
+        byte[] content = Arrays.copyOf(header, header.length + automaton.length);
+        System.arraycopy(automaton, 0, content, header.length, automaton.length);
+
+        try {
+            Files.createDirectories(directory);
+            // write a temporary file first, such that concurrent readers never
+            // see a partial entry
+            Path temp = Files.createTempFile(directory, "entry", ".tmp");
+            try {
+                Files.write(temp, content);
+                Files.move(temp, directory.resolve(fileName(key)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            evict();
+        } catch (IOException e) {
+            System.err.println("Could not write into the cache: " + e.getMessage());
+        }
+    }
+
+    String statistics() {
+        return "Cache hits: " + hits.get() + ", cache misses: " + misses.get();
+    }
+
+    private synchronized void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long size = 0;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, '*' + SUFFIX)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                size += Files.size(entry);
+            }
+        }
+
+        if (size <= maxBytes) {
+            return;
+        }
+
+        Map<Path, FileTime> lastUse = new TreeMap<>();
+        for (Path entry : entries) {
+            lastUse.put(entry, Files.getLastModifiedTime(entry));
+        }
+        entries.sort(Comparator.comparing(lastUse::get));
+
+        for (Path entry : entries) {
+            if (size <= maxBytes) {
+                break;
+            }
+
+            long entrySize = Files.size(entry);
+            if (Files.deleteIfExists(entry)) {
+                size -= entrySize;
+            }
+        }
+    }
+
+    private static byte[] header(String key) {
+        return (key + '\n').getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -26,8 +26,30 @@ import ltl.GOperator;
 import ltl.UOperator;
 import ltl.XOperator;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Unfolds a formula apart from the G-operators and the F-operators of the
+ * Mojmir slaves. An instance remembers the unfoldings it has computed, so it
+ * can be reused for many formulas, which then share the unfoldings of their
+ * common subformulas. It is not thread-safe.
+ */
 public class UnfoldNoSlaveOperatorVisitor extends DefaultConverter {
 
+    private final Map<Formula, Formula> cache = new HashMap<>();
+
+    @Override
+    public Formula visit(Conjunction conjunction) {
+        return memoize(conjunction, () -> super.visit(conjunction));
+    }
+
+    @Override
+    public Formula visit(Disjunction disjunction) {
+        return memoize(disjunction, () -> super.visit(disjunction));
+    }
+
     @Override
     public Formula visit(GOperator g) {
         return g;
@@ -43,11 +65,21 @@ public class UnfoldNoSlaveOperatorVisitor extends DefaultConverter {
         if (fOperator instanceof FOperatorForMojmir) {
             return fOperator;
         }
-        return new Disjunction(fOperator.operand.accept(this), fOperator);
+        return memoize(fOperator, () -> new Disjunction(fOperator.operand.accept(this), fOperator));
     }
 
     @Override
     public Formula visit(UOperator uOperator) {
-        return new Disjunction(uOperator.right.accept(this), new Conjunction(uOperator.left.accept(this), uOperator));
+        return memoize(uOperator, () -> new Disjunction(uOperator.right.accept(this), new Conjunction(uOperator.left.accept(this), uOperator)));
+    }
+
+    private Formula memoize(Formula formula, Supplier<Formula> unfolding) {
+        // not computeIfAbsent, since the unfolding adds its subformulas
+        Formula result = cache.get(formula);
+        if (result == null) {
+            result = unfolding.get();
+            cache.put(formula, result);
+        }
+        return result;
     }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An automaton written by {@link BinaryAutomatonWriter}. The file is mapped
+ * into memory, and the states are read on demand, hence loading is
+ * independent of the size of the automaton. Files larger than 2 GB cannot be
+ * mapped at once and are rejected.
+ */
+public final class BinaryAutomaton {
+
+    private final MappedByteBuffer buffer;
+    private final BinaryAutomatonWriter.AcceptanceKind acceptanceKind;
+    private final List<String> propositions;
+    private final int[] infSetsPerPair;
+    private final int numberOfSets;
+    private final int words;
+    private final int numberOfStates;
+    private final int initialState;
+    private final int offsetTable;
+
+    private BinaryAutomaton(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        if (buffer.getInt() != BinaryAutomatonWriter.MAGIC) {
+            throw new IOException("This is not a binary automaton.");
+        }
+
+        int version = buffer.getInt();
+        if (version != BinaryAutomatonWriter.VERSION) {
+            throw new IOException("Unsupported version " + version + " of the binary automaton.");
+        }
+
+        acceptanceKind = BinaryAutomatonWriter.AcceptanceKind.values()[buffer.get()];
+
+        int size = buffer.getInt();
+        List<String> names = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        propositions = Collections.unmodifiableList(names);
+
+        infSetsPerPair = new int[buffer.getInt()];
+        int sets = 0;
+        for (int i = 0; i < infSetsPerPair.length; i++) {
+            infSetsPerPair[i] = buffer.getInt();
+            sets += 1 + infSetsPerPair[i];
+        }
+        numberOfSets = sets;
+        words = (sets + 63) / 64;
+
+        numberOfStates = buffer.getInt();
+        initialState = buffer.getInt();
+        offsetTable = buffer.position();
+    }
+
+    public static BinaryAutomaton load(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The binary automaton is too large to be mapped.");
+            }
+
+            // the mapping stays valid after the channel is closed
+            return new BinaryAutomaton(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public BinaryAutomatonWriter.AcceptanceKind getAcceptanceKind() {
+        return acceptanceKind;
+    }
+
+    public List<String> getAtomicPropositions() {
+        return propositions;
+    }
+
+    public int getNumberOfPairs() {
+        return infSetsPerPair.length;
+    }
+
+    public int getNumberOfInfSets(int pair) {
+        return infSetsPerPair[pair];
+    }
+
+    /**
+     * The sets are numbered pair by pair, first the Fin-set, then the
+     * Inf-sets of the pair.
+     */
+    public int getNumberOfSets() {
+        return numberOfSets;
+    }
+
+    public int getNumberOfStates() {
+        return numberOfStates;
+    }
+
+    /**
+     * @return the initial state or -1 if the automaton is empty
+     */
+    public int getInitialState() {
+        return initialState;
+    }
+
+    public BitSet getSensitiveAlphabet(int state) {
+        int position = stateOffset(state);
+        int letters = buffer.getInt(position);
+        BitSet result = new BitSet();
+        for (int i = 0; i < letters; i++) {
+            result.set(buffer.getInt(position + 4 + 4 * i));
+        }
+        return result;
+    }
+
+    /**
+     * @return the successor or -1 if there is none
+     */
+    public int getSuccessor(int state, BitSet valuation) {
+        return buffer.getInt(entryOffset(state, valuation));
+    }
+
+    /**
+     * @return the acceptance sets containing the edge
+     */
+    public BitSet getAcceptance(int state, BitSet valuation) {
+        int position = entryOffset(state, valuation) + 4;
+        long[] acceptance = new long[words];
+        for (int i = 0; i < words; i++) {
+            acceptance[i] = buffer.getLong(position + 8 * i);
+        }
+        return BitSet.valueOf(acceptance);
+    }
+
+    private int stateOffset(int state) {
+        if (state < 0 || state >= numberOfStates) {
+            throw new IndexOutOfBoundsException("There is no state " + state);
+        }
+        return (int) buffer.getLong(offsetTable + 8 * state);
+    }
+
+    private int entryOffset(int state, BitSet valuation) {
+        int position = stateOffset(state);
+        int letters = buffer.getInt(position);
+        if (letters < 0 || letters > BinaryAutomatonWriter.MAX_SENSITIVE_LETTERS) {
+            throw new IllegalStateException("The state " + state + " has " + letters + " sensitive letters, the file is corrupt.");
+        }
+
+        int index = 0;
+        for (int i = 0; i < letters; i++) {
+            if (valuation.get(buffer.getInt(position + 4 + 4 * i))) {
+                index |= 1 << i;
+            }
+        }
+        return position + 4 + 4 * letters + index * (4 + 8 * words);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.output;
+
+import com.google.common.collect.BiMap;
+
+import omega_automaton.Automaton;
+import omega_automaton.AutomatonState;
+import omega_automaton.Edge;
+import omega_automaton.collections.TranSet;
+import omega_automaton.collections.Tuple;
+import rabinizer.automata.AbstractSelfProductSlave;
+import rabinizer.automata.DTRA;
+import rabinizer.automata.Product;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes automata in a compact binary format, which can be loaded again by
+ * {@link BinaryAutomaton} without parsing. All numbers are big-endian.
+ *
+ * <pre>
+ * header:  magic "RBZA", int version, byte acceptance kind (see {@link AcceptanceKind}),
+ *          int #propositions, per proposition: int length, UTF-8 name,
+ *          int #pairs, per pair: int #Inf-sets,
+ *          int #states, int initial state (-1 if there is none),
+ *          per state: long offset of the state from the beginning of the file
+ * state:   int #sensitive letters k, k ints with the letters,
+ *          2^k entries: int successor (-1 if there is none), acceptance words
+ * </pre>
+ *
+ * The entries of a state are indexed by the valuations of its sensitive
+ * letters, where bit i of the index is the value of the i-th letter. The
+ * acceptance sets are numbered pair by pair: the Fin-set of a pair is followed
+ * by its Inf-sets. An edge carries a bitset of the sets containing it, stored
+ * as longs, the number of longs is the number of sets divided by 64, rounded
+ * up. The acceptance is always transition-based, even for the automaton types
+ * sgr and sr.
+ *
+ * The construction of the automata already enumerates all valuations of the
+ * sensitive letters of every state, hence the tables are not larger than the
+ * construction itself. Still, states with more than
+ * {@value #MAX_SENSITIVE_LETTERS} sensitive letters are rejected, since their
+ * tables alone would have millions of entries.
+ */
+public final class BinaryAutomatonWriter {
+
+    static final int MAGIC = 0x525a4241;
+    static final int VERSION = 1;
+
+    /**
+     * The maximal number of sensitive letters of a state, i.e. a state has at
+     * most 2^20 entries.
+     */
+    public static final int MAX_SENSITIVE_LETTERS = 20;
+
+    public enum AcceptanceKind {
+        NONE, GENERALISED_RABIN, RABIN
+    }
+
+    private BinaryAutomatonWriter() {
+    }
+
+    public static <S extends AbstractSelfProductSlave<S>.State> void write(Product<S> product, BiMap<String, Integer> aliases, OutputStream out) throws IOException {
+        List<List<TranSet<Product<S>.ProductState>>> pairs = new ArrayList<>();
+        AcceptanceKind kind = AcceptanceKind.NONE;
+
+        if (product.getAcceptance() != null) {
+            kind = AcceptanceKind.GENERALISED_RABIN;
+            for (Tuple<TranSet<Product<S>.ProductState>, List<TranSet<Product<S>.ProductState>>> pair : product.getAcceptance().unmodifiableCopyOfAcceptanceCondition()) {
+                List<TranSet<Product<S>.ProductState>> sets = new ArrayList<>();
+                sets.add(pair.left);
+                sets.addAll(pair.right);
+                pairs.add(sets);
+            }
+        }
+
+        write(product, kind, pairs, aliases, out);
+    }
+
+    public static void write(DTRA dtra, BiMap<String, Integer> aliases, OutputStream out) throws IOException {
+        List<List<TranSet<DTRA.ProductDegenState>>> pairs = new ArrayList<>();
+
+        for (Tuple<TranSet<DTRA.ProductDegenState>, TranSet<DTRA.ProductDegenState>> pair : dtra.getRabinPairs()) {
+            List<TranSet<DTRA.ProductDegenState>> sets = new ArrayList<>();
+            sets.add(pair.left);
+            sets.add(pair.right);
+            pairs.add(sets);
+        }
+
+        write(dtra, AcceptanceKind.RABIN, pairs, aliases, out);
+    }
+
+    private static <S extends AutomatonState<S>> void write(Automaton<S, ?> automaton, AcceptanceKind kind, List<List<TranSet<S>>> pairs, BiMap<String, Integer> aliases,
+            OutputStream out) throws IOException {
+        List<S> states = new ArrayList<>(automaton.getStates());
+        Map<S, Integer> ids = new HashMap<>();
+        List<int[]> sensitiveLetters = new ArrayList<>(states.size());
+        int maxLetter = -1;
+
+        for (S state : states) {
+            ids.put(state, ids.size());
+            int[] letters = state.getSensitiveAlphabet().stream().toArray();
+            if (letters.length > MAX_SENSITIVE_LETTERS) {
+                throw new IllegalArgumentException("The state " + state + " depends on " + letters.length
+                        + " letters, but the binary format supports at most " + MAX_SENSITIVE_LETTERS + " letters per state.");
+            }
+            sensitiveLetters.add(letters);
+            if (letters.length > 0) {
+                maxLetter = Math.max(maxLetter, letters[letters.length - 1]);
+            }
+        }
+
+        List<String> propositions = new ArrayList<>();
+        if (aliases == null) {
+            for (int i = 0; i <= maxLetter; i++) {
+                propositions.add("p" + i);
+            }
+        } else {
+            for (int i = 0; i < aliases.size(); i++) {
+                propositions.add(aliases.inverse().get(i));
+            }
+        }
+
+        int numberOfSets = pairs.stream().mapToInt(List::size).sum();
+        int words = (numberOfSets + 63) / 64;
+
+        ByteCountingOutputStream counter = new ByteCountingOutputStream(new BufferedOutputStream(out, 1 << 16));
+        DataOutputStream data = new DataOutputStream(counter);
+
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeByte(kind.ordinal());
+
+        data.writeInt(propositions.size());
+        for (String proposition : propositions) {
+            byte[] name = proposition.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(name.length);
+            data.write(name);
+        }
+
+        data.writeInt(pairs.size());
+        for (List<TranSet<S>> pair : pairs) {
+            data.writeInt(pair.size() - 1);
+        }
+
+        S initialState = automaton.getInitialState();
+        data.writeInt(states.size());
+        data.writeInt(initialState == null || !ids.containsKey(initialState) ? -1 : ids.get(initialState));
+
+        long offset = counter.count + 8L * states.size();
+        for (int[] letters : sensitiveLetters) {
+            data.writeLong(offset);
+            offset += 4 + 4L * letters.length + (1L << letters.length) * (4 + 8L * words);
+        }
+
+        List<TranSet<S>> sets = new ArrayList<>(numberOfSets);
+        pairs.forEach(sets::addAll);
+
+        for (int i = 0; i < states.size(); i++) {
+            S state = states.get(i);
+            int[] letters = sensitiveLetters.get(i);
+
+            data.writeInt(letters.length);
+            for (int letter : letters) {
+                data.writeInt(letter);
+            }
+
+            long[] acceptance = new long[words];
+            for (int index = 0; index < 1 << letters.length; index++) {
+                BitSet valuation = new BitSet();
+                for (int j = 0; j < letters.length; j++) {
+                    if ((index & (1 << j)) != 0) {
+                        valuation.set(letters[j]);
+                    }
+                }
+
+                Edge<S> edge = automaton.getSuccessor(state, valuation);
+                Integer successor = edge == null ? null : ids.get(edge.successor);
+                data.writeInt(successor == null ? -1 : successor);
+
+                Arrays.fill(acceptance, 0);
+                if (successor != null) {
+                    for (int set = 0; set < sets.size(); set++) {
+                        if (sets.get(set).contains(state, valuation)) {
+                            acceptance[set / 64] |= 1L << (set % 64);
+                        }
+                    }
+                }
+
+                for (long word : acceptance) {
+                    data.writeLong(word);
+                }
+            }
+        }
+
+        data.flush();
+    }
+
+    private static final class ByteCountingOutputStream extends FilterOutputStream {
+        long count;
+
+        ByteCountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
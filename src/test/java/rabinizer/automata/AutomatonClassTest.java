@@ -26,6 +26,11 @@ import rabinizer.automata.DTGRAFactory;
 import rabinizer.automata.EmptinessCheck;
 import rabinizer.automata.Optimisation;
 import rabinizer.automata.Product;
+import rabinizer.frequencyLTL.SlaveSubformulaVisitor;
+import rabinizer.frequencyLTL.TopMostOperatorVisitor;
+import rabinizer.frequencyLTL.UnfoldNoSlaveOperatorVisitor;
+import com.google.common.collect.Sets;
+import ltl.equivalence.EquivalenceClass;
 import ltl.equivalence.EquivalenceClassFactory;
 import ltl.equivalence.FactoryRegistry.Backend;
 import omega_automaton.Edge;
@@ -33,10 +38,16 @@ import omega_automaton.algorithms.SCCAnalyser;
 import omega_automaton.collections.valuationset.*;
 import ltl.*;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -59,6 +70,159 @@ public class AutomatonClassTest {
         assertEquals(f4, m.generateInitialState().getClazz().getRepresentative());
     }
 
+    @Test
+    public void testMasterUnfoldsOncePerState() {
+        Formula formula = Util.createFormula("G (a | X b)");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(2);
+
+        Master.State state = new Master(formula, factory, val, Collections.emptySet()).generateInitialState();
+        assertSame(state.unfolded(), state.unfolded());
+        assertEquals(state.getClazz().unfold(), state.unfolded());
+    }
+
+    @Test
+    public void testMasterInternsStates() {
+        Formula formula = Util.createFormula("G a");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(1);
+
+        Master.State state = new Master(formula, factory, val, Collections.emptySet()).generateInitialState();
+        BitSet valuation = new BitSet();
+        valuation.set(0);
+        assertSame(state, state.getSuccessor(valuation).successor);
+    }
+
+    @Test
+    public void testCachedUnfoldingsMatchFreshOnes() {
+        GOperator formula = (GOperator) Util.createFormula("G (a | X (b U c) | F (d & X (b U c)) | (b U c) & X F d)");
+
+        for (Set<Optimisation> opts : Arrays.asList(Collections.<Optimisation> emptySet(), EnumSet.of(Optimisation.EAGER))) {
+            EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+            ValuationSetFactory val = new BDDValuationSetFactory(4);
+
+            MojmirSlave mojmir = new MojmirSlave(formula, factory, val, opts);
+            mojmir.generate();
+            for (MojmirSlave.State state : mojmir.getStates()) {
+                // a fresh visitor shares no unfoldings with the cached ones
+                EquivalenceClass unfolded = state.getClazz().apply(f -> f.accept(new UnfoldNoSlaveOperatorVisitor()));
+                assertEquals(unfolded, state.unfolded());
+                assertEquals(AbstractFormulaState.getSensitive(unfolded), state.getSensitiveAlphabet());
+            }
+
+            Master master = new Master(formula, factory, val, opts);
+            master.generate();
+            for (Master.State state : master.getStates()) {
+                EquivalenceClass unfolded = state.getClazz().unfold();
+                assertEquals(unfolded, state.unfolded());
+                assertEquals(AbstractFormulaState.getSensitive(unfolded), state.getSensitiveAlphabet());
+
+                // the cached alphabet is handed out as a copy
+                state.getSensitiveAlphabet().set(4);
+                assertEquals(AbstractFormulaState.getSensitive(unfolded), state.getSensitiveAlphabet());
+            }
+        }
+    }
+
+    @Test
+    public void testMinimalGSetsMatchEnumeration() {
+        for (String input : Arrays.asList("G (a | X G b | G c & G d | G (b | c))", "G (F a | G b & X G c | (G d U G c))", "G (a U (G b | G c | G d | G (a & b)))")) {
+            Formula formula = Util.createFormula(input);
+            EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+            ValuationSetFactory val = new BDDValuationSetFactory(4);
+
+            for (UnaryModalOperator g : formula.accept(new SlaveSubformulaVisitor())) {
+                Set<UnaryModalOperator> topmost = g.operand.accept(new TopMostOperatorVisitor());
+                MojmirSlave mojmir = new MojmirSlave(g, factory, val, Collections.emptySet());
+                mojmir.generate();
+
+                for (MojmirSlave.State state : mojmir.getStates()) {
+                    // all G-sets implying the state, and the minimal ones among them
+                    Set<Set<UnaryModalOperator>> implying = Sets.powerSet(topmost).stream()
+                            .filter(gSet -> factory.createEquivalenceClass(new Conjunction(gSet)).implies(state.getClazz())).collect(Collectors.toSet());
+                    Set<Set<UnaryModalOperator>> minimal = implying.stream()
+                            .filter(gSet -> implying.stream().noneMatch(other -> gSet.containsAll(other) && !gSet.equals(other))).collect(Collectors.toSet());
+
+                    List<Set<UnaryModalOperator>> antichain = AccLocal.computeMinimalGSets(topmost, state.getClazz(), factory, new HashMap<>(), Budget.UNLIMITED);
+                    assertEquals(minimal, new HashSet<>(antichain));
+                    assertEquals(minimal.size(), antichain.size());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFrozenMojmirSlave() {
+        GOperator formula = (GOperator) Util.createFormula("G (a | X (b U c))");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(3);
+
+        MojmirSlave mojmir = new MojmirSlave(formula, factory, val, Collections.emptySet());
+        mojmir.generate();
+        Set<MojmirSlave.State> finalStates = Collections.singleton(mojmir.getInitialState());
+
+        Map<MojmirSlave.State, ValuationSet> failing = new HashMap<>();
+        Map<MojmirSlave.State, ValuationSet> succeeding = new HashMap<>();
+        for (MojmirSlave.State state : mojmir.getStates()) {
+            failing.put(state, state.getFailingMojmirTransitions(finalStates));
+            succeeding.put(state, state.getSucceedMojmirTransitions(finalStates));
+        }
+
+        mojmir.freeze();
+
+        for (MojmirSlave.State state : mojmir.getStates()) {
+            assertEquals(mojmir.isSink(state), mojmir.isSinkState(state));
+            assertEquals(failing.get(state), state.getFailingMojmirTransitions(finalStates));
+            assertEquals(succeeding.get(state), state.getSucceedMojmirTransitions(finalStates));
+        }
+    }
+
+    @Test
+    public void testMasterParallelGeneration() {
+        Formula formula = Util.createFormula("G (a | X b) & F (c U d) & X X (e | a)");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(5);
+
+        Master sequential = new Master(formula, factory, val, Collections.singleton(Optimisation.EAGER));
+        sequential.generate();
+        Master parallel = new Master(formula, factory, val, Collections.singleton(Optimisation.EAGER));
+        parallel.generate(4, factory, () -> ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula));
+
+        assertEquals(sequential.getStates().stream().map(Master.State::getClazz).collect(Collectors.toSet()),
+                parallel.getStates().stream().map(Master.State::getClazz).collect(Collectors.toSet()));
+        assertEquals(sequential.getStates().stream().mapToInt(state -> sequential.getSuccessors(state).size()).sum(),
+                parallel.getStates().stream().mapToInt(state -> parallel.getSuccessors(state).size()).sum());
+    }
+
+    @Test
+    public void testMasterSymbolicSuccessors() {
+        Formula formula = Util.createFormula("(a | b) U (c & X d) | G (e | X a)");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(5);
+
+        Master master = new Master(formula, factory, val, Collections.emptySet());
+        Master.State state = master.generateInitialState();
+        assertTrue(state.getSensitiveAlphabet().cardinality() >= Master.SYMBOLIC_THRESHOLD);
+
+        Map<Edge<Master.State>, ValuationSet> successors = state.getSuccessors();
+
+        for (int i = 0; i < 1 << 5; i++) {
+            BitSet valuation = BitSet.valueOf(new long[] { i });
+            Edge<Master.State> edge = state.getSuccessor(valuation);
+
+            if (edge == null) {
+                assertTrue(successors.values().stream().noneMatch(vs -> vs.contains(valuation)));
+            } else {
+                assertTrue(successors.get(edge).contains(valuation));
+            }
+        }
+    }
+
     /**
      * the test ist just there in order to see if there are no exceptions
      */
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.automata;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import rabinizer.Util;
+import omega_automaton.collections.valuationset.*;
+import ltl.Formula;
+import ltl.equivalence.EquivalenceClassFactory;
+
+public class BudgetTest {
+
+    @Test(expected = BudgetExceededException.class)
+    public void testStateLimitAbortsConstruction() {
+        Formula formula = Util.createFormula("X X X a");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(1);
+
+        DTGRAFactory automatonFactory = new DTGRAFactory(formula, factory, val, AutomatonClassTest.standard);
+        automatonFactory.setBudget(Budget.of(0, 2, 0));
+        automatonFactory.constructAutomaton();
+    }
+
+    @Test
+    public void testSufficientBudget() {
+        Formula formula = Util.createFormula("X X X a");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(1);
+
+        DTGRAFactory automatonFactory = new DTGRAFactory(formula, factory, val, AutomatonClassTest.standard);
+        automatonFactory.setBudget(Budget.of(60000, 100, 0));
+        assertFalse(automatonFactory.constructAutomaton().getStates().isEmpty());
+    }
+
+    @Test
+    public void testExceptionDescribesResource() {
+        try {
+            Budget.of(0, 5, 0).checkStates(6);
+            fail();
+        } catch (BudgetExceededException e) {
+            assertEquals(BudgetExceededException.Resource.STATES, e.resource);
+            assertEquals(5, e.limit);
+            assertEquals(6, e.usage);
+        }
+    }
+}
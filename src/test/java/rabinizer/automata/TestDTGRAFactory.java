@@ -21,11 +21,35 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import jhoafparser.consumer.HOAConsumerStore;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
 import rabinizer.Util;
+import omega_automaton.Edge;
+import omega_automaton.collections.TranSet;
+import omega_automaton.collections.Tuple;
 import omega_automaton.collections.valuationset.*;
+import ltl.Conjunction;
 import ltl.Formula;
+import ltl.GOperator;
 import ltl.equivalence.EquivalenceClassFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 public class TestDTGRAFactory {
 
     @Test
@@ -40,4 +64,293 @@ public class TestDTGRAFactory {
         assertTrue(dtgra.getAcceptance().unmodifiableCopyOfAcceptanceCondition().stream().allMatch(pair -> pair.right.stream().allMatch(p -> !p.isEmpty())));
     }
 
+    @Test
+    public void testMasterExploredByProduct() {
+        Formula formula = Util.createFormula("G(a | X b) & F G c");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(3);
+        ProductRabinizer dtgra = new DTGRAFactory(formula, factory, val, AutomatonClassTest.standard).constructAutomaton();
+
+        assertEquals(dtgra.getStates().stream().map(state -> state.primaryState).distinct().count(), dtgra.primaryAutomaton.size());
+    }
+
+    @Test
+    public void testStreamingHasSameStates() {
+        Formula formula = Util.createFormula("G(a | X b) & F G c");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(3);
+        DTGRAFactory automatonFactory = new DTGRAFactory(formula, factory, val, Collections.emptySet());
+        int states = automatonFactory.constructAutomaton().size();
+
+        factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        val = new BDDValuationSetFactory(3);
+        automatonFactory = new DTGRAFactory(formula, factory, val, Collections.emptySet());
+        HOAConsumerStore store = new HOAConsumerStore();
+        automatonFactory.constructAutomatonStreaming(store, null);
+
+        assertEquals(states, store.getStoredAutomaton().getNumberOfStates());
+    }
+
+    @Test
+    public void testStatisticsRecordPhases() {
+        Formula formula = Util.createFormula("G F a & G b");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(2);
+        DTGRAFactory automatonFactory = new DTGRAFactory(formula, factory, val, AutomatonClassTest.standard);
+        ConstructionStatistics statistics = new ConstructionStatistics();
+        automatonFactory.setStatistics(statistics);
+        ProductRabinizer dtgra = automatonFactory.constructAutomaton();
+
+        // A silent construction explores the master on demand, so it is recorded after the product.
+        List<String> names = statistics.getPhases().stream().map(phase -> phase.name).collect(Collectors.toList());
+        assertEquals(names.indexOf("product") + 1, names.indexOf(AbstractAutomatonFactory.MASTER_ON_DEMAND));
+        assertFalse(names.contains("master"));
+        assertTrue(statistics.getPhases().stream().anyMatch(phase -> phase.name.equals(AbstractAutomatonFactory.MASTER_ON_DEMAND) && phase.states == dtgra.primaryAutomaton.size() && phase.states > 0));
+        assertTrue(statistics.getPhases().stream().anyMatch(phase -> phase.name.equals("product") && phase.states == dtgra.size()));
+        assertTrue(statistics.getPhases().stream().filter(phase -> phase.name.equals("product"))
+                .allMatch(phase -> phase.footprint.keySet().containsAll(Arrays.asList(HeapFootprint.MASTER, HeapFootprint.SELF_PRODUCT_SLAVES, HeapFootprint.PRODUCT))));
+        assertTrue(statistics.toJson("G F a & G b").startsWith("{\"formula\":\"G F a & G b\",\"phases\":[{\"phase\":\"mojmir slave"));
+    }
+
+    @Test
+    public void testParallelSlavesGiveSameAutomaton() {
+        Formula formula = Util.createFormula("G (a | F b) & G F (c & X a) & F G (b | c)");
+        Set<Optimisation> eager = EnumSet.copyOf(AutomatonClassTest.standard);
+        eager.add(Optimisation.EAGER);
+
+        for (Set<Optimisation> opts : Arrays.asList(AutomatonClassTest.standard, eager)) {
+            EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+            ValuationSetFactory val = new BDDValuationSetFactory(3);
+            ProductRabinizer sequential = new DTGRAFactory(formula, factory, val, opts).constructAutomaton();
+
+            factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+            val = new BDDValuationSetFactory(3);
+            DTGRAFactory automatonFactory = new DTGRAFactory(formula, factory, val, opts);
+            automatonFactory.setParallelism(4, () -> ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula), () -> new BDDValuationSetFactory(3));
+            ProductRabinizer parallel = automatonFactory.constructAutomaton();
+
+            assertIsomorphic(sequential, parallel, 3);
+        }
+    }
+
+    /**
+     * Checks that the automata have the same transitions up to the names of
+     * the states, and the same acceptance up to the order of the pairs and
+     * of their Inf-sets.
+     */
+    private static void assertIsomorphic(ProductRabinizer expected, ProductRabinizer actual, int letters) {
+        assertEquals(expected.size(), actual.size());
+
+        List<Product<RabinSlave.State>.ProductState> expectedStates = new ArrayList<>();
+        List<Product<RabinSlave.State>.ProductState> actualStates = new ArrayList<>();
+        Map<Product<RabinSlave.State>.ProductState, Product<RabinSlave.State>.ProductState> isomorphism = new HashMap<>();
+        expectedStates.add(expected.getInitialState());
+        actualStates.add(actual.getInitialState());
+        isomorphism.put(expected.getInitialState(), actual.getInitialState());
+
+        for (int id = 0; id < expectedStates.size(); id++) {
+            for (int i = 0; i < 1 << letters; i++) {
+                BitSet valuation = BitSet.valueOf(new long[] { i });
+                Edge<Product<RabinSlave.State>.ProductState> expectedEdge = expected.getSuccessor(expectedStates.get(id), valuation);
+                Edge<Product<RabinSlave.State>.ProductState> actualEdge = actual.getSuccessor(actualStates.get(id), valuation);
+                assertEquals(expectedEdge == null, actualEdge == null);
+
+                if (expectedEdge != null) {
+                    Product<RabinSlave.State>.ProductState image = isomorphism.get(expectedEdge.successor);
+                    if (image == null) {
+                        assertFalse(actualStates.contains(actualEdge.successor));
+                        isomorphism.put(expectedEdge.successor, actualEdge.successor);
+                        expectedStates.add(expectedEdge.successor);
+                        actualStates.add(actualEdge.successor);
+                    } else {
+                        assertEquals(image, actualEdge.successor);
+                    }
+                }
+            }
+        }
+
+        assertEquals(acceptance(expected, expectedStates, letters), acceptance(actual, actualStates, letters));
+    }
+
+    /**
+     * @return every pair as its Fin-set and the set of its Inf-sets, where a
+     *         set is given by the indices of the edges it contains
+     */
+    private static Multiset<List<Object>> acceptance(ProductRabinizer automaton, List<Product<RabinSlave.State>.ProductState> states, int letters) {
+        Multiset<List<Object>> pairs = HashMultiset.create();
+
+        for (Tuple<TranSet<Product<RabinSlave.State>.ProductState>, List<TranSet<Product<RabinSlave.State>.ProductState>>> pair : automaton.getAcceptance()
+                .unmodifiableCopyOfAcceptanceCondition()) {
+            Set<BitSet> infs = new HashSet<>();
+            pair.right.forEach(inf -> infs.add(edges(inf, states, letters)));
+            pairs.add(Arrays.asList(edges(pair.left, states, letters), infs));
+        }
+
+        return pairs;
+    }
+
+    private static BitSet edges(TranSet<Product<RabinSlave.State>.ProductState> set, List<Product<RabinSlave.State>.ProductState> states, int letters) {
+        BitSet edges = new BitSet();
+
+        for (int id = 0; id < states.size(); id++) {
+            for (int i = 0; i < 1 << letters; i++) {
+                if (set.contains(states.get(id), BitSet.valueOf(new long[] { i }))) {
+                    edges.set((id << letters) + i);
+                }
+            }
+        }
+
+        return edges;
+    }
+
+    @Test
+    public void testMinimisedSlavesKeepTheLanguage() {
+        for (String input : Arrays.asList("G (a | X (b U c)) & G F (b | X c)", "G (a | X G b | X X (b U c)) & F G c", "G (X a | X X a | G (b | c)) & G F b")) {
+            assertMinimisedSlavesKeepTheLanguage(input, false);
+            assertMinimisedSlavesKeepTheLanguage(input, true);
+        }
+    }
+
+    @Test
+    public void testMinimisedSlavesKeepTheLanguageOfEagerSteps() {
+        // The eager premise of a state X G b contains its step G b, which is
+        // false if G b is not in the G-set, while the premise X G b alone is
+        // not.
+        Formula xgb = Util.createFormula("X G b");
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(xgb);
+        Function<Formula, Optional<Boolean>> noGs = formula -> formula instanceof GOperator ? Optional.of(Boolean.FALSE) : Optional.empty();
+        assertFalse(factory.createEquivalenceClass(xgb, noGs).isFalse());
+        assertTrue(factory.createEquivalenceClass(new Conjunction(Arrays.asList(xgb, xgb.temporalStep(new BitSet()))), noGs).isFalse());
+
+        for (String input : Arrays.asList("G (a | X G b) & G F c", "G (a | X G b | X X G c) & G F (b | c)", "G F (a & X G b) | G (c | X X G b)")) {
+            assertMinimisedSlavesKeepTheLanguage(input, true);
+        }
+    }
+
+    private static void assertMinimisedSlavesKeepTheLanguage(String input, boolean eager) {
+        Formula formula = Util.createFormula(input);
+
+        Set<Optimisation> plainOpts = EnumSet.copyOf(AutomatonClassTest.standard);
+        if (eager) {
+            plainOpts.add(Optimisation.EAGER);
+        }
+        Set<Optimisation> minimising = EnumSet.copyOf(plainOpts);
+        minimising.add(Optimisation.MINIMISE_SLAVES);
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ProductRabinizer plain = new DTGRAFactory(formula, factory, new BDDValuationSetFactory(3), plainOpts).constructAutomaton();
+
+        factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ProductRabinizer minimised = new DTGRAFactory(formula, factory, new BDDValuationSetFactory(3), minimising).constructAutomaton();
+
+        assertTrue(minimised.size() <= plain.size());
+        assertSameLassos(plain, minimised, 3, input + (eager ? " (eager)" : ""));
+    }
+
+    /**
+     * Checks that the automata accept the same words u v^w for all u of
+     * length at most 2 and v of length 1 or 2.
+     */
+    private static void assertSameLassos(ProductRabinizer expected, ProductRabinizer actual, int letters, String message) {
+        List<List<BitSet>> periods = words(letters, 1, 2);
+
+        for (List<BitSet> prefix : words(letters, 0, 2)) {
+            for (List<BitSet> period : periods) {
+                assertEquals(message + ": " + prefix + " " + period, accepts(expected, prefix, period), accepts(actual, prefix, period));
+            }
+        }
+    }
+
+    private static List<List<BitSet>> words(int letters, int min, int max) {
+        List<List<BitSet>> words = new ArrayList<>();
+        List<List<BitSet>> level = Collections.singletonList(Collections.emptyList());
+
+        for (int length = 0; length <= max; length++) {
+            if (length >= min) {
+                words.addAll(level);
+            }
+
+            List<List<BitSet>> next = new ArrayList<>();
+            for (List<BitSet> word : level) {
+                for (int i = 0; i < 1 << letters; i++) {
+                    List<BitSet> longer = new ArrayList<>(word);
+                    longer.add(BitSet.valueOf(new long[] { i }));
+                    next.add(longer);
+                }
+            }
+            level = next;
+        }
+
+        return words;
+    }
+
+    /**
+     * Runs the automaton on prefix period^w. The run is deterministic, so it
+     * ends in a loop through the period, whose edges are exactly the ones
+     * visited infinitely often. A missing edge rejects.
+     */
+    private static boolean accepts(ProductRabinizer automaton, List<BitSet> prefix, List<BitSet> period) {
+        Product<RabinSlave.State>.ProductState state = run(automaton, automaton.getInitialState(), prefix, null);
+
+        // the states at the start of the period, until one repeats
+        List<Product<RabinSlave.State>.ProductState> starts = new ArrayList<>();
+        while (state != null && !starts.contains(state)) {
+            starts.add(state);
+            state = run(automaton, state, period, null);
+        }
+
+        if (state == null) {
+            return false;
+        }
+
+        List<Tuple<Product<RabinSlave.State>.ProductState, BitSet>> loop = new ArrayList<>();
+        Product<RabinSlave.State>.ProductState current = state;
+        do {
+            current = run(automaton, current, period, loop);
+        } while (!current.equals(state));
+
+        for (Tuple<TranSet<Product<RabinSlave.State>.ProductState>, List<TranSet<Product<RabinSlave.State>.ProductState>>> pair : automaton.getAcceptance()
+                .unmodifiableCopyOfAcceptanceCondition()) {
+            if (loop.stream().noneMatch(edge -> pair.left.contains(edge.left, edge.right))
+                    && pair.right.stream().allMatch(inf -> loop.stream().anyMatch(edge -> inf.contains(edge.left, edge.right)))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param edges
+     *            if not null, the edges taken are added to it
+     * @return the state reached by the word, or null if an edge is missing
+     */
+    private static Product<RabinSlave.State>.ProductState run(ProductRabinizer automaton, Product<RabinSlave.State>.ProductState state, List<BitSet> word,
+            List<Tuple<Product<RabinSlave.State>.ProductState, BitSet>> edges) {
+        for (BitSet valuation : word) {
+            Edge<Product<RabinSlave.State>.ProductState> edge = automaton.getSuccessor(state, valuation);
+            if (edge == null) {
+                return null;
+            }
+            if (edges != null) {
+                edges.add(new Tuple<>(state, valuation));
+            }
+            state = edge.successor;
+        }
+
+        return state;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStreamingNeedsNoAcceptance() {
+        Formula formula = Util.createFormula("G F a");
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(1);
+        new DTGRAFactory(formula, factory, val, AutomatonClassTest.standard).constructAutomatonStreaming(new HOAConsumerStore(), null);
+    }
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016  (See AUTHORS)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rabinizer.output;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.google.common.collect.HashBiMap;
+
+import rabinizer.Util;
+import rabinizer.automata.DTGRAFactory;
+import rabinizer.automata.DTRA;
+import rabinizer.automata.Optimisation;
+import rabinizer.automata.ProductRabinizer;
+import omega_automaton.collections.valuationset.*;
+import ltl.Formula;
+import ltl.equivalence.EquivalenceClassFactory;
+import omega_automaton.Edge;
+import omega_automaton.collections.TranSet;
+import omega_automaton.collections.Tuple;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+
+public class BinaryAutomatonTest {
+
+    @Test
+    public void testRoundTripDTRA() throws IOException {
+        HashBiMap<String, Integer> mapping = HashBiMap.create();
+        Formula formula = Util.createFormula("G F a & F G b", mapping);
+
+        EquivalenceClassFactory factory = ltl.equivalence.FactoryRegistry.createEquivalenceClassFactory(formula);
+        ValuationSetFactory val = new BDDValuationSetFactory(2);
+        ProductRabinizer dtgra = new DTGRAFactory(formula, factory, val, EnumSet.of(Optimisation.COMPUTE_ACC_CONDITION)).constructAutomaton();
+        DTRA dtra = new DTRA(dtgra);
+
+        File file = File.createTempFile("automaton", ".bin");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            BinaryAutomatonWriter.write(dtra, mapping, out);
+        }
+
+        BinaryAutomaton loaded = BinaryAutomaton.load(file);
+        assertEquals(BinaryAutomatonWriter.AcceptanceKind.RABIN, loaded.getAcceptanceKind());
+        assertEquals(dtra.size(), loaded.getNumberOfStates());
+        assertEquals(dtra.getRabinPairs().size(), loaded.getNumberOfPairs());
+        assertEquals(2, loaded.getAtomicPropositions().size());
+
+        // the writer numbers the states in the order of getStates
+        List<DTRA.ProductDegenState> states = new ArrayList<>(dtra.getStates());
+        assertEquals(states.indexOf(dtra.getInitialState()), loaded.getInitialState());
+
+        List<TranSet<DTRA.ProductDegenState>> sets = new ArrayList<>();
+        for (Tuple<TranSet<DTRA.ProductDegenState>, TranSet<DTRA.ProductDegenState>> pair : dtra.getRabinPairs()) {
+            sets.add(pair.left);
+            sets.add(pair.right);
+        }
+        assertEquals(sets.size(), loaded.getNumberOfSets());
+
+        for (int id = 0; id < states.size(); id++) {
+            DTRA.ProductDegenState state = states.get(id);
+
+            for (int i = 0; i < 4; i++) {
+                BitSet valuation = BitSet.valueOf(new long[] { i });
+                Edge<DTRA.ProductDegenState> edge = dtra.getSuccessor(state, valuation);
+                assertEquals(edge == null ? -1 : states.indexOf(edge.successor), loaded.getSuccessor(id, valuation));
+
+                BitSet acceptance = new BitSet();
+                for (int set = 0; edge != null && set < sets.size(); set++) {
+                    if (sets.get(set).contains(state, valuation)) {
+                        acceptance.set(set);
+                    }
+                }
+                assertEquals(acceptance, loaded.getAcceptance(id, valuation));
+            }
+        }
+    }
+}